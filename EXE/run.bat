@@ -13,6 +13,7 @@ if not exist %JAR_FILE% (
 java --add-opens=java.desktop/sun.awt=ALL-UNNAMED ^
      --add-opens=java.desktop/java.awt=ALL-UNNAMED ^
      --add-opens=java.desktop/sun.java2d=ALL-UNNAMED ^
+     --add-modules=jdk.incubator.vector ^
      -jar %JAR_FILE% %*
 
 pause
@@ -12,4 +12,5 @@ fi
 java --add-opens=java.desktop/sun.awt=ALL-UNNAMED \
      --add-opens=java.desktop/java.awt=ALL-UNNAMED \
      --add-opens=java.desktop/sun.java2d=ALL-UNNAMED \
+     --add-modules=jdk.incubator.vector \
      -jar "$JAR_FILE" "$@"
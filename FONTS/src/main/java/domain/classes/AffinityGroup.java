@@ -1,5 +1,6 @@
 package domain.classes;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 
 /**
  * Class representing an Affinity Group
@@ -11,9 +12,9 @@ public class AffinityGroup {
      */
     private Integer representativeUUID;
     /**
-     * List of member profile IDs of the group
+     * Member profile IDs of the group, in the order they joined
      */
-    private ArrayList<Integer> membersUUID;
+    private LinkedHashSet<Integer> membersUUID;
 
 
     /**
@@ -24,12 +25,12 @@ public class AffinityGroup {
      */
     public AffinityGroup(Integer repID, ArrayList<Integer> memIDs) {
         this.representativeUUID = repID;
-        this.membersUUID = new ArrayList<>();
+        this.membersUUID = new LinkedHashSet<>();
         if (memIDs != null) {
             this.membersUUID.addAll(memIDs); 
         }
         
-        if (repID != null && !this.membersUUID.contains(repID)) {
+        if (repID != null) {
             this.membersUUID.add(repID);
         }
     }
@@ -39,7 +40,7 @@ public class AffinityGroup {
      *
      */
     public AffinityGroup() {
-        this.membersUUID = new ArrayList<>();
+        this.membersUUID = new LinkedHashSet<>();
         this.representativeUUID = null;
     }
     
@@ -65,6 +66,15 @@ public class AffinityGroup {
         return new ArrayList<>(membersUUID);
     }
 
+    /**
+     * Get the number of members of the group
+     * 
+     * @return number of member profiles of the group
+     */
+    public int getMemberCount() {
+        return membersUUID.size();
+    }
+
 
     // ---------------------------------------------------------
     // SETTERS
@@ -79,7 +89,7 @@ public class AffinityGroup {
      */
     public void setRepresentative(Integer repID) {
         this.representativeUUID = repID;
-        if (repID != null && !membersUUID.contains(repID)) {
+        if (repID != null) {
             membersUUID.add(repID);
         }
     }
@@ -97,11 +107,7 @@ public class AffinityGroup {
      */
     public boolean addMember(Integer id) {
         if (id == null) return false;
-        if (!membersUUID.contains(id)) {
-            membersUUID.add(id);
-            return true;
-        }
-        return false;
+        return membersUUID.add(id);
     }
 
     /**
@@ -0,0 +1,239 @@
+package domain.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Cluster hierarchy of a bisecting (divisive) kmeans over the answers of a form.
+ * The root holds every answer, and every split replaces one leaf by the two halves of its bisection, so the clustering
+ * with K clusters is made of the nodes alive after the first K - 1 splits and any K up to the number of leaves is read
+ * from the tree without clustering again. Every leaf keeps its bisection computed ahead, the split order only chooses
+ * among them. The tree is tied to the encoded answers it was built on, identified by a fingerprint of the raw answers.
+ */
+final class BisectingTree {
+    /**
+     * Two halves of a cluster, the best of the 2-means trials
+     */
+    static final class Bisection {
+        /**
+         * Attributes
+         * rows: Rows of every half
+         * stats: Statistics of every half
+         * sse: Sum of squared distances to the centroid of every half
+         */
+        final int[][] rows;
+        final ClusterStats[] stats;
+        final double[] sse;
+
+        /**
+         * Creates a bisection
+         * @param rows Rows of every half
+         * @param stats Statistics of every half
+         * @param sse Sum of squared distances of every half
+         */
+        Bisection(int[][] rows, ClusterStats[] stats, double[] sse){
+            this.rows = rows;
+            this.stats = stats;
+            this.sse = sse;
+        }
+
+        /**
+         * Sum of squared distances of both halves, lower is a better bisection
+         * @return double total
+         */
+        double total(){
+            return sse[0] + sse[1];
+        }
+    }
+
+    /**
+     * Node of the hierarchy
+     */
+    static final class Node {
+        /**
+         * Attributes
+         * parent: Index of the parent node, -1 for the root
+         * createdAt: Split that created the node, -1 for the root
+         * splitAt: Split that divided the node, -1 while it is a leaf
+         * stats: Statistics of the answers of the node
+         * sse: Sum of squared distances of its answers to its centroid
+         * rows: Rows of the node while it is a leaf, null once split
+         * bisection: Bisection of a leaf computed ahead, null if not computed yet or the leaf can not be split
+         * bisected: True once the bisection was attempted
+         */
+        final int parent;
+        final int createdAt;
+        int splitAt = -1;
+        final ClusterStats stats;
+        final double sse;
+        int[] rows;
+        Bisection bisection;
+        boolean bisected;
+
+        /**
+         * Creates a leaf
+         * @param parent Index of the parent node, -1 for the root
+         * @param createdAt Split that created the node, -1 for the root
+         * @param rows Rows of the node
+         * @param stats Statistics of the rows
+         * @param sse Sum of squared distances of the rows to their centroid
+         */
+        Node(int parent, int createdAt, int[] rows, ClusterStats stats, double sse){
+            this.parent = parent;
+            this.createdAt = createdAt;
+            this.rows = rows;
+            this.stats = stats;
+            this.sse = sse;
+        }
+    }
+
+    /**
+     * Attributes
+     * data: Encoded answers of the tree
+     * answers: Cleaned answers of the tree, in row order
+     * nQuestions: Number of questions of the form when it was built
+     * fingerprint: Fingerprint of the raw answers it was built on
+     * seed: Seed the random stream of every node is derived from
+     * nodes: Every node, in creation order (children of split s are nodes 2s + 1 and 2s + 2)
+     * leafOf: Current leaf of every row
+     */
+    final KmeansData data;
+    final ArrayList<Answer> answers;
+    final int nQuestions;
+    final long fingerprint;
+    final long seed;
+    final ArrayList<Node> nodes = new ArrayList<>();
+    private final int[] leafOf;
+
+    /**
+     * Creates a tree with only the root
+     * @param data Encoded answers
+     * @param answers Cleaned answers, in row order
+     * @param nQuestions Number of questions of the form
+     * @param fingerprint Fingerprint of the raw answers
+     * @param seed Seed of the random streams of the nodes
+     * @param root Statistics of every answer
+     */
+    BisectingTree(KmeansData data, ArrayList<Answer> answers, int nQuestions, long fingerprint, long seed, ClusterStats root){
+        this.data = data;
+        this.answers = answers;
+        this.nQuestions = nQuestions;
+        this.fingerprint = fingerprint;
+        this.seed = seed;
+        int[] rows = new int[data.nRows];
+        for(int i = 0; i < rows.length; i++) rows[i] = i;
+        nodes.add(new Node(-1, -1, rows, root, 0.0));
+        leafOf = new int[data.nRows];
+    }
+
+    /**
+     * Fingerprint of a list of answers, the same answers in the same order give the same value
+     * @param answers Raw answers of a form
+     * @return long fingerprint
+     */
+    static long fingerprint(ArrayList<Answer> answers){
+        long h = answers.size();
+        for(Answer a : answers){
+            h = h * 31 + a.getResponderUUID();
+            for(QuestionAnswer qa : a.getAnswer()) h = h * 31 + Objects.hashCode(qa.getAnswerObject());
+        }
+        return h;
+    }
+
+    /**
+     * Tells if the tree was built on some answers, compared the same way
+     * @param nQuestions Number of questions of the form
+     * @param openModes How every OPEN_ENDED question is compared now
+     * @param fingerprint Fingerprint of the raw answers
+     * @return true if the tree can be read for them
+     */
+    boolean matches(int nQuestions, Question.OpenDistance[] openModes, long fingerprint){
+        return this.nQuestions == nQuestions && Arrays.equals(data.openModes, openModes) && this.fingerprint == fingerprint;
+    }
+
+    /**
+     * Number of splits done, the tree has splits + 1 leaves
+     * @return int splits
+     */
+    int splits(){
+        return (nodes.size() - 1) / 2;
+    }
+
+    /**
+     * Leaves that still need their bisection computed
+     * @return ArrayList of node indexes
+     */
+    ArrayList<Integer> pendingBisections(){
+        ArrayList<Integer> pending = new ArrayList<>();
+        for(int i = 0; i < nodes.size(); i++){
+            Node n = nodes.get(i);
+            if(n.splitAt < 0 && !n.bisected) pending.add(i);
+        }
+        return pending;
+    }
+
+    /**
+     * Leaf to split next, among the leaves with a bisection
+     * @param rule How the leaf is chosen
+     * @return int node index, -1 if no leaf can be split
+     */
+    int nextSplit(Kmeans.BisectingSplit rule){
+        int best = -1;
+        double bestScore = -1.0;
+        for(int i = 0; i < nodes.size(); i++){
+            Node n = nodes.get(i);
+            if(n.splitAt >= 0 || n.bisection == null) continue;
+            double score = rule == Kmeans.BisectingSplit.LARGEST ? n.rows.length : n.sse;
+            if(score > bestScore){
+                bestScore = score;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Splits a leaf with its bisection, its halves become two new leaves
+     * @param node Index of the leaf
+     */
+    void split(int node){
+        Node n = nodes.get(node);
+        int s = splits();
+        n.splitAt = s;
+        for(int h = 0; h < 2; h++){
+            int child = nodes.size();
+            nodes.add(new Node(node, s, n.bisection.rows[h], n.bisection.stats[h], n.bisection.sse[h]));
+            for(int row : n.bisection.rows[h]) leafOf[row] = child;
+        }
+        n.rows = null;
+        n.bisection = null;
+    }
+
+    /**
+     * Clustering with K clusters read from the tree: the nodes alive after the first K - 1 splits, in node order
+     * @param K Number of clusters, at most splits() + 1
+     * @return KmeansRes with the assignment and the centroid of every cluster
+     */
+    KmeansRes clustering(int K){
+        int s = K - 1;
+        int[] cluster = new int[nodes.size()];
+        int count = 0;
+        for(int i = 0; i < nodes.size(); i++){
+            Node n = nodes.get(i);
+            boolean alive = n.createdAt < s && (n.splitAt < 0 || n.splitAt >= s);
+            cluster[i] = alive ? count++ : -1;
+        }
+        KmeansData centroids = data.emptyLike(count);
+        for(int i = 0; i < nodes.size(); i++){
+            if(cluster[i] >= 0) nodes.get(i).stats.writeCentroid(centroids, cluster[i]);
+        }
+        int[] assignment = new int[data.nRows];
+        for(int row = 0; row < data.nRows; row++){
+            int node = leafOf[row];
+            while(nodes.get(node).createdAt >= s) node = nodes.get(node).parent;
+            assignment[row] = cluster[node];
+        }
+        return new KmeansRes(assignment, centroids);
+    }
+}
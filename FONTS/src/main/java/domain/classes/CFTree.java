@@ -0,0 +1,329 @@
+package domain.classes;
+
+import java.util.ArrayList;
+
+/**
+ * Clustering feature tree (BIRCH, Zhang, Ramakrishnan and Livny) over streamed answers.
+ * Every entry summarizes a set of answers with its ClusterStats (per question sums, counts, choice histograms
+ * and word frequencies), so answers are absorbed one at a time and never kept. An answer joins the closest leaf entry
+ * when it is within the threshold distance of its centroid, otherwise it starts a new entry, and full nodes split.
+ * When the summaries outgrow the memory budget the threshold grows and the tree is rebuilt from its leaf entries,
+ * so the memory stays flat however many answers are inserted.
+ * All the statistics refer to a one row encoding the answers are streamed through, which shares the schema of the run.
+ * That encoding keeps whole open ended answers out of its dictionary (see KmeansData.streamingLike), so the dictionary
+ * only holds the words the summaries count, already part of their footprint.
+ */
+final class CFTree {
+    /**
+     * Attributes
+     * BRANCHING: Maximum entries of an inner node
+     * LEAF_SIZE: Maximum entries of a leaf
+     * CHECK_EVERY: Insertions between two checks of the memory budget
+     * point: One row encoding every answer is written to before it is inserted
+     * budget: Maximum bytes of the summaries and their centroids
+     * threshold: Largest distance between an answer and the centroid of the leaf entry that absorbs it
+     * root: Root node
+     * inserted: Answers inserted
+     * rebuilds: Times the tree was rebuilt with a larger threshold
+     * nearest: Distance to the entry found by the last Node.closest
+     */
+    private static final int BRANCHING = 16;
+    private static final int LEAF_SIZE = 32;
+    private static final int CHECK_EVERY = 1024;
+    private final KmeansData point;
+    private final long budget;
+    private double threshold = 0.0;
+    private Node root;
+    private long inserted;
+    private int rebuilds;
+    private double nearest;
+
+    /**
+     * Node of the tree, its entries are the summaries of its children (or of the answers, in a leaf)
+     * and their centroids, one encoded row per entry
+     */
+    private final class Node {
+        /**
+         * Attributes
+         * size: Number of entries
+         * stats: Summary of every entry
+         * children: Child of every entry, null in a leaf
+         * centroids: Centroid of every entry, with room for one entry over the maximum before a split
+         */
+        int size;
+        final ClusterStats[] stats;
+        final Node[] children;
+        final KmeansData centroids;
+
+        /**
+         * Creates an empty node
+         * @param leaf True for a leaf
+         */
+        Node(boolean leaf){
+            int capacity = (leaf ? LEAF_SIZE : BRANCHING) + 1;
+            stats = new ClusterStats[capacity];
+            children = leaf ? null : new Node[capacity];
+            centroids = point.emptyLike(capacity);
+        }
+
+        /**
+         * Tells if the node is a leaf
+         * @return true if its entries summarize answers
+         */
+        boolean leaf(){
+            return children == null;
+        }
+
+        /**
+         * Appends an entry
+         * @param s Summary of the entry
+         * @param child Child of the entry, null in a leaf
+         */
+        void add(ClusterStats s, Node child){
+            stats[size] = s;
+            if(children != null) children[size] = child;
+            s.writeCentroid(centroids, size);
+            size++;
+        }
+
+        /**
+         * Replaces the summary of an entry
+         * @param i Entry index
+         * @param s New summary
+         */
+        void set(int i, ClusterStats s){
+            stats[i] = s;
+            s.writeCentroid(centroids, i);
+        }
+
+        /**
+         * Index of the entry whose centroid is closest to the first row of an encoding, its distance is left in nearest
+         * @param c Encoding with the answer (or summary centroid) in its first row
+         * @return int entry index, -1 if the node is empty
+         */
+        int closest(KmeansData c){
+            int closest = -1;
+            double minDist = Double.POSITIVE_INFINITY;
+            for(int i = 0; i < size; i++){
+                double d = c.distance(0, centroids, i, minDist);
+                if(closest < 0 || d < minDist){
+                    minDist = d;
+                    closest = i;
+                }
+            }
+            nearest = minDist;
+            return closest;
+        }
+
+        /**
+         * Sum of the summaries of every entry, the summary of the whole node
+         * @return ClusterStats of the node
+         */
+        ClusterStats summary(){
+            ClusterStats s = new ClusterStats(point);
+            for(int i = 0; i < size; i++) s.merge(stats[i]);
+            return s;
+        }
+
+        /**
+         * Rough heap bytes of the node and its subtree
+         * @return long estimated bytes
+         */
+        long footprint(){
+            long bytes = 64 + (long) stats.length * (16 + 24L * point.nQuestions);
+            for(int i = 0; i < size; i++){
+                bytes += stats[i].footprint();
+                if(children != null) bytes += children[i].footprint();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Creates an empty tree
+     * @param point One row encoding the answers are inserted through
+     * @param budget Maximum bytes of the summaries
+     */
+    CFTree(KmeansData point, long budget){
+        this.point = point;
+        this.budget = budget;
+        this.root = new Node(true);
+    }
+
+    /**
+     * Inserts the answer encoded in the first row of point
+     */
+    void insert(){
+        ClusterStats s = new ClusterStats(point);
+        s.add(0);
+        insertRoot(s, point);
+        inserted++;
+        if(inserted % CHECK_EVERY == 0) checkBudget();
+    }
+
+    /**
+     * Summaries of the leaf entries, in tree order
+     * @return ArrayList of leaf summaries, every inserted answer counted in exactly one
+     */
+    ArrayList<ClusterStats> leaves(){
+        ArrayList<ClusterStats> leaves = new ArrayList<>();
+        collectLeaves(root, leaves);
+        return leaves;
+    }
+
+    /**
+     * Current absorption threshold
+     * @return double distance between 0 and 1
+     */
+    double getThreshold(){
+        return threshold;
+    }
+
+    /**
+     * Times the tree was rebuilt to fit in the budget
+     * @return int number of rebuilds
+     */
+    int getRebuilds(){
+        return rebuilds;
+    }
+
+    /**
+     * Inserts a summary from the root, growing a new root when the old one splits
+     * @param s Summary to insert
+     * @param c Encoding with the point (or the centroid of the summary) in its first row
+     */
+    private void insertRoot(ClusterStats s, KmeansData c){
+        Node sibling = insert(root, s, c);
+        if(sibling == null) return;
+        Node newRoot = new Node(false);
+        newRoot.add(root.summary(), root);
+        newRoot.add(sibling.summary(), sibling);
+        root = newRoot;
+    }
+
+    /**
+     * Inserts a summary into a subtree
+     * @param node Root of the subtree
+     * @param s Summary to insert
+     * @param c Encoding with the point (or the centroid of the summary) in its first row
+     * @return Node new sibling of node if it split, null otherwise
+     */
+    private Node insert(Node node, ClusterStats s, KmeansData c){
+        int closest = node.closest(c);
+        if(node.leaf()){
+            if(closest >= 0 && nearest <= threshold){
+                node.stats[closest].merge(s);
+                node.set(closest, node.stats[closest]);
+                return null;
+            }
+            node.add(s, null);
+            return node.size > LEAF_SIZE ? split(node) : null;
+        }
+        Node child = node.children[closest];
+        Node sibling = insert(child, s, c);
+        if(sibling == null){
+            node.stats[closest].merge(s);
+            node.set(closest, node.stats[closest]);
+            return null;
+        }
+        node.set(closest, child.summary());
+        node.add(sibling.summary(), sibling);
+        return node.size > BRANCHING ? split(node) : null;
+    }
+
+    /**
+     * Splits a full node around its two farthest entries, every entry follows the closest of them
+     * @param node Node with one entry over the maximum
+     * @return Node new sibling with part of the entries
+     */
+    private Node split(Node node){
+        int seedA = 0, seedB = 1;
+        double far = -1.0;
+        for(int i = 0; i < node.size; i++){
+            for(int j = i + 1; j < node.size; j++){
+                double d = node.centroids.distance(i, node.centroids, j);
+                if(d > far){
+                    far = d;
+                    seedA = i;
+                    seedB = j;
+                }
+            }
+        }
+        Node sibling = new Node(node.leaf());
+        int kept = 0, total = node.size;
+        ClusterStats[] stats = node.stats.clone();
+        Node[] children = node.children == null ? null : node.children.clone();
+        KmeansData centroids = point.emptyLike(total);
+        for(int i = 0; i < total; i++) centroids.copyRow(i, node.centroids, i);
+        node.size = 0;
+        for(int i = 0; i < total; i++){
+            boolean toSibling = i == seedB || (i != seedA && centroids.distance(i, centroids, seedB) < centroids.distance(i, centroids, seedA));
+            Node target = toSibling ? sibling : node;
+            target.stats[target.size] = stats[i];
+            if(children != null) target.children[target.size] = children[i];
+            target.centroids.copyRow(target.size, centroids, i);
+            target.size++;
+            if(!toSibling) kept++;
+        }
+        for(int i = kept; i < total; i++){
+            node.stats[i] = null;
+            if(node.children != null) node.children[i] = null;
+        }
+        return sibling;
+    }
+
+    /**
+     * Rebuilds the tree with a larger threshold while the summaries do not fit in the budget.
+     * The new threshold at least doubles and reaches the closest pair of entries of any leaf, so some entries always merge
+     */
+    private void checkBudget(){
+        while(root.footprint() > budget && threshold < 1.0){
+            double closest = Double.POSITIVE_INFINITY;
+            ArrayList<Node> leafNodes = new ArrayList<>();
+            collectLeafNodes(root, leafNodes);
+            for(Node leaf : leafNodes){
+                for(int i = 0; i < leaf.size; i++){
+                    for(int j = i + 1; j < leaf.size; j++){
+                        double d = leaf.centroids.distance(i, leaf.centroids, j, closest);
+                        if(d > 0.0 && d < closest) closest = d;
+                    }
+                }
+            }
+            threshold = Math.min(1.0, Math.max(2.0 * threshold, closest == Double.POSITIVE_INFINITY ? 1.0 : closest));
+            ArrayList<ClusterStats> entries = leaves();
+            root = new Node(true);
+            KmeansData centroid = point.emptyLike(1);
+            for(ClusterStats s : entries){
+                s.writeCentroid(centroid, 0);
+                insertRoot(s, centroid);
+            }
+            rebuilds++;
+        }
+    }
+
+    /**
+     * Appends the leaf summaries of a subtree
+     * @param node Root of the subtree
+     * @param leaves List to fill
+     */
+    private static void collectLeaves(Node node, ArrayList<ClusterStats> leaves){
+        if(node.leaf()){
+            for(int i = 0; i < node.size; i++) leaves.add(node.stats[i]);
+            return;
+        }
+        for(int i = 0; i < node.size; i++) collectLeaves(node.children[i], leaves);
+    }
+
+    /**
+     * Appends the leaves of a subtree
+     * @param node Root of the subtree
+     * @param leafNodes List to fill
+     */
+    private static void collectLeafNodes(Node node, ArrayList<Node> leafNodes){
+        if(node.leaf()){
+            leafNodes.add(node);
+            return;
+        }
+        for(int i = 0; i < node.size; i++) collectLeafNodes(node.children[i], leafNodes);
+    }
+}
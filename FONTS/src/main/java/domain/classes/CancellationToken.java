@@ -0,0 +1,27 @@
+package domain.classes;
+
+/**
+ * Cooperative cancellation of a clustering run. The run checks the token between iterations,
+ * so it stops shortly after cancel is called, from any thread, and throws a CancellationException.
+ */
+public class CancellationToken {
+    /**
+     * Attribute: True once the run was asked to stop
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Asks the runs using this token to stop
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Tells if the runs using this token were asked to stop
+     * @return true after cancel
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,117 @@
+package domain.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Overlapping canopies of the encoded answers (McCallum, Nigam and Ungar), built with the cheap proxy distance of
+ * KmeansData.proxyDistances, so no OPEN_ENDED question is measured. Centers are picked in random order among the answers
+ * not yet taken: every answer within the loose threshold of a center joins its canopy, and the ones within the tight
+ * threshold can no longer be centers. Every answer ends up in at least one canopy, and answers that share none are
+ * treated as far apart, so the full distance only needs to be measured inside the canopies.
+ */
+final class Canopies {
+    /**
+     * Attributes
+     * count: Number of canopies
+     * nRows: Number of encoded answers
+     * members: Rows of every canopy, increasing
+     * canopiesOf: Canopies of every row, increasing
+     */
+    final int count;
+    private final int nRows;
+    private final int[][] members;
+    private final int[][] canopiesOf;
+
+    /**
+     * Creates the canopies from the members of every canopy
+     * @param nRows Number of encoded answers
+     * @param members Rows of every canopy, increasing
+     */
+    private Canopies(int nRows, ArrayList<int[]> members){
+        this.count = members.size();
+        this.nRows = nRows;
+        this.members = members.toArray(new int[count][]);
+        int[] sizes = new int[nRows];
+        for(int[] canopy : this.members) for(int row : canopy) sizes[row]++;
+        this.canopiesOf = new int[nRows][];
+        for(int row = 0; row < nRows; row++) canopiesOf[row] = new int[sizes[row]];
+        int[] filled = new int[nRows];
+        for(int c = 0; c < count; c++) for(int row : this.members[c]) canopiesOf[row][filled[row]++] = c;
+    }
+
+    /**
+     * Builds the canopies of an encoding
+     * @param data Encoded answers
+     * @param loose Proxy distance under which an answer joins the canopy of a center
+     * @param tight Proxy distance under which an answer can no longer be a center, at most loose
+     * @param random Random generator picking the order of the centers
+     * @return Canopies covering every row of data
+     */
+    static Canopies build(KmeansData data, double loose, double tight, Random random){
+        int n = data.nRows;
+        int[] order = new int[n];
+        for(int i = 0; i < n; i++) order[i] = i;
+        for(int i = n - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        boolean[] taken = new boolean[n];
+        double[] proxy = new double[n];
+        double[] count = new double[n];
+        int[] buffer = new int[n];
+        ArrayList<int[]> members = new ArrayList<>();
+        for(int center : order){
+            if(taken[center]) continue;
+            data.proxyDistances(center, data, proxy, count);
+            int size = 0;
+            for(int row = 0; row < n; row++){
+                if(proxy[row] > loose) continue;
+                buffer[size++] = row;
+                if(proxy[row] <= tight) taken[row] = true;
+            }
+            members.add(Arrays.copyOf(buffer, size)); //el centre hi es sempre, la seva distancia proxy es 0
+        }
+        return new Canopies(n, members);
+    }
+
+    /**
+     * Rows that share at least one canopy with a row, the row included
+     * @param row Encoded answer
+     * @param mark Scratch buffer of nRows flags, all false, left all false
+     * @return int[] rows, increasing
+     */
+    int[] neighbours(int row, boolean[] mark){
+        int size = 0;
+        for(int c : canopiesOf[row]){
+            for(int other : members[c]){
+                if(!mark[other]){
+                    mark[other] = true;
+                    size++;
+                }
+            }
+        }
+        int[] result = new int[size];
+        int filled = 0;
+        for(int other = 0; other < nRows && filled < size; other++){
+            if(mark[other]){
+                mark[other] = false;
+                result[filled++] = other;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Average number of canopies of a row, how much the canopies overlap
+     * @return double canopies per row, at least 1
+     */
+    double overlap(){
+        long total = 0;
+        for(int[] canopy : members) total += canopy.length;
+        return nRows == 0 ? 0.0 : (double) total / nRows;
+    }
+}
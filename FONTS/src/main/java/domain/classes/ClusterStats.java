@@ -0,0 +1,317 @@
+package domain.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Running statistics of one cluster over encoded answers, enough to rebuild its centroid
+ * without rescanning the members: numeric sums and counts, sums of ordered choice indexes,
+ * unordered choice frequencies and word frequencies.
+ * Partial statistics of the same cluster can be merged, so every chunk of answers can be accumulated apart.
+ */
+final class ClusterStats {
+    /**
+     * Attributes
+     * data: Encoded answers the statistics refer to
+     * size: Number of answers accumulated
+     * numericSum, numericCount: Sum and count of the answered NUMERIC values, per question
+     * ordinalSum, ordinalCount: Sum and count of the original choice indexes of ordered MULTIPLE_CHOICE answers, per question
+     * choiceFreq, choiceCount: Times every choice was selected in unordered MULTIPLE_CHOICE answers and number of those answers, per question
+     * tokenFreq: Times every word appears in OPEN_ENDED answers, per question
+     */
+    private final KmeansData data;
+    private int size;
+    private final double[] numericSum;
+    private final int[] numericCount;
+    private final long[] ordinalSum;
+    private final int[] ordinalCount;
+    private final int[][] choiceFreq;
+    private final int[] choiceCount;
+    private final HashMap<Integer,Integer>[] tokenFreq;
+
+    /**
+     * Creates empty statistics for the schema of some encoded answers
+     * @param data Encoded answers
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"}) //generic array creation, every position holds a HashMap<Integer,Integer>
+    ClusterStats(KmeansData data){
+        this.data = data;
+        int nQ = data.nQuestions;
+        numericSum = new double[nQ];
+        numericCount = new int[nQ];
+        ordinalSum = new long[nQ];
+        ordinalCount = new int[nQ];
+        choiceFreq = new int[nQ][];
+        choiceCount = new int[nQ];
+        tokenFreq = new HashMap[nQ];
+        for(int q = 0; q < nQ; q++){
+            if(data.types[q] == Question.QuestionType.MULTIPLE_CHOICE && !data.ordered[q]) choiceFreq[q] = new int[data.nChoices[q]];
+            if(data.types[q] == Question.QuestionType.OPEN_ENDED) tokenFreq[q] = new HashMap<>();
+        }
+    }
+
+    /**
+     * Number of answers accumulated
+     * @return int size of the cluster
+     */
+    int size(){
+        return size;
+    }
+
+    /**
+     * Rough heap bytes taken by the statistics, to keep many of them under a memory budget
+     * @return long estimated bytes
+     */
+    long footprint(){
+        long bytes = 64 + 40L * data.nQuestions;
+        for(int q = 0; q < data.nQuestions; q++){
+            if(choiceFreq[q] != null) bytes += 16 + 4L * choiceFreq[q].length;
+            if(tokenFreq[q] != null) bytes += 48 + 64L * tokenFreq[q].size(); //entrada del HashMap amb les dues claus Integer
+        }
+        return bytes;
+    }
+
+    /**
+     * Empties the statistics so they can be reused
+     */
+    void clear(){
+        size = 0;
+        Arrays.fill(numericSum, 0.0);
+        Arrays.fill(numericCount, 0);
+        Arrays.fill(ordinalSum, 0L);
+        Arrays.fill(ordinalCount, 0);
+        Arrays.fill(choiceCount, 0);
+        for(int q = 0; q < data.nQuestions; q++){
+            if(choiceFreq[q] != null) Arrays.fill(choiceFreq[q], 0);
+            if(tokenFreq[q] != null) tokenFreq[q].clear();
+        }
+    }
+
+    /**
+     * Adds an encoded answer to the statistics
+     * @param row Row of the answer in the encoded data
+     */
+    void add(int row){
+        size++;
+        for(int q = 0; q < data.nQuestions; q++){
+            switch (data.types[q]) {
+                case NUMERIC:
+                    double v = data.numeric[q][row];
+                    if(!Double.isNaN(v)){
+                        numericSum[q] += v;
+                        numericCount[q]++;
+                    }
+                    break;
+                case MULTIPLE_CHOICE:
+                    if(data.ordered[q]){
+                        int rank = data.ordinal[q][row];
+                        if(rank != KmeansData.MISSING){
+                            ordinalSum[q] += data.choiceOfRank[q][rank];
+                            ordinalCount[q]++;
+                        }
+                    }
+                    else if(data.choiceSets[q][row] != null){
+                        KmeansHelper.countChoices(choiceFreq[q], data.choiceSets[q][row], 1);
+                        choiceCount[q]++;
+                    }
+                    break;
+                case OPEN_ENDED:
+                    if(data.tokens[q][row] != null){
+                        for(int w : data.tokens[q][row]) tokenFreq[q].merge(w, 1, Integer::sum);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Removes an encoded answer previously added to the statistics
+     * @param row Row of the answer in the encoded data
+     */
+    void remove(int row){
+        size--;
+        for(int q = 0; q < data.nQuestions; q++){
+            switch (data.types[q]) {
+                case NUMERIC:
+                    double v = data.numeric[q][row];
+                    if(!Double.isNaN(v)){
+                        numericSum[q] -= v;
+                        numericCount[q]--;
+                    }
+                    break;
+                case MULTIPLE_CHOICE:
+                    if(data.ordered[q]){
+                        int rank = data.ordinal[q][row];
+                        if(rank != KmeansData.MISSING){
+                            ordinalSum[q] -= data.choiceOfRank[q][rank];
+                            ordinalCount[q]--;
+                        }
+                    }
+                    else if(data.choiceSets[q][row] != null){
+                        KmeansHelper.countChoices(choiceFreq[q], data.choiceSets[q][row], -1);
+                        choiceCount[q]--;
+                    }
+                    break;
+                case OPEN_ENDED:
+                    if(data.tokens[q][row] != null){
+                        //les paraules que ja no apareixen surten del mapa, no poden ser la moda
+                        for(int w : data.tokens[q][row]) tokenFreq[q].computeIfPresent(w, (key, f) -> f > 1 ? f - 1 : null);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds the statistics of another part of the same cluster
+     * @param other Statistics over the same encoded data
+     */
+    void merge(ClusterStats other){
+        size += other.size;
+        for(int q = 0; q < data.nQuestions; q++){
+            numericSum[q] += other.numericSum[q];
+            numericCount[q] += other.numericCount[q];
+            ordinalSum[q] += other.ordinalSum[q];
+            ordinalCount[q] += other.ordinalCount[q];
+            choiceCount[q] += other.choiceCount[q];
+            if(choiceFreq[q] != null){
+                for(int i = 0; i < choiceFreq[q].length; i++) choiceFreq[q][i] += other.choiceFreq[q][i];
+            }
+            if(tokenFreq[q] != null){
+                for(HashMap.Entry<Integer,Integer> e : other.tokenFreq[q].entrySet()) tokenFreq[q].merge(e.getKey(), e.getValue(), Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Exports the statistics in the stored form of the centroid model, words as strings
+     * @return ClusteringModel.Cluster with a copy of the statistics
+     */
+    ClusteringModel.Cluster toModel(){
+        ClusteringModel.Cluster c = new ClusteringModel.Cluster();
+        c.size = size;
+        c.numericSum = numericSum.clone();
+        c.numericCount = numericCount.clone();
+        c.ordinalSum = ordinalSum.clone();
+        c.ordinalCount = ordinalCount.clone();
+        c.choiceFreq = new int[data.nQuestions][];
+        for(int q = 0; q < data.nQuestions; q++) c.choiceFreq[q] = choiceFreq[q] == null ? null : choiceFreq[q].clone();
+        c.choiceCount = choiceCount.clone();
+        c.tokenFreq = new ArrayList<>(data.nQuestions);
+        for(int q = 0; q < data.nQuestions; q++){
+            HashMap<String,Integer> words = new HashMap<>();
+            if(tokenFreq[q] != null){
+                for(HashMap.Entry<Integer,Integer> e : tokenFreq[q].entrySet()) words.put(data.dictionary.get(e.getKey()), e.getValue());
+            }
+            c.tokenFreq.add(words);
+        }
+        return c;
+    }
+
+    /**
+     * Applies the change of adding (or removing) an encoded answer to stored statistics of the centroid model,
+     * the same change add and remove make, so the stored statistics follow the loaded ones without exporting them again
+     * @param data Encoded answers
+     * @param row Row of the answer
+     * @param c Stored statistics
+     * @param sign 1 to add the answer, -1 to remove it
+     */
+    static void count(KmeansData data, int row, ClusteringModel.Cluster c, int sign){
+        c.size += sign;
+        for(int q = 0; q < data.nQuestions; q++){
+            switch (data.types[q]) {
+                case NUMERIC:
+                    double v = data.numeric[q][row];
+                    if(!Double.isNaN(v)){
+                        c.numericSum[q] += sign * v;
+                        c.numericCount[q] += sign;
+                    }
+                    break;
+                case MULTIPLE_CHOICE:
+                    if(data.ordered[q]){
+                        int rank = data.ordinal[q][row];
+                        if(rank != KmeansData.MISSING){
+                            c.ordinalSum[q] += sign * data.choiceOfRank[q][rank];
+                            c.ordinalCount[q] += sign;
+                        }
+                    }
+                    else if(data.choiceSets[q][row] != null && c.choiceFreq[q] != null){
+                        KmeansHelper.countChoices(c.choiceFreq[q], data.choiceSets[q][row], sign);
+                        c.choiceCount[q] += sign;
+                    }
+                    break;
+                case OPEN_ENDED:
+                    if(data.tokens[q][row] != null){
+                        for(int w : data.tokens[q][row]){
+                            //les paraules que ja no apareixen surten del mapa, com a remove
+                            c.tokenFreq.get(q).compute(data.dictionary.get(w), (key, f) -> {
+                                int n = (f == null ? 0 : f) + sign;
+                                return n > 0 ? n : null;
+                            });
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Imports stored statistics of the centroid model, words are interned in the dictionary of data (in alphabetical order)
+     * @param data Encoded answers with the schema of the model
+     * @param c Stored statistics
+     * @return ClusterStats with a copy of the statistics
+     */
+    static ClusterStats fromModel(KmeansData data, ClusteringModel.Cluster c){
+        ClusterStats stats = new ClusterStats(data);
+        stats.size = c.size;
+        for(int q = 0; q < data.nQuestions; q++){
+            stats.numericSum[q] = c.numericSum[q];
+            stats.numericCount[q] = c.numericCount[q];
+            stats.ordinalSum[q] = c.ordinalSum[q];
+            stats.ordinalCount[q] = c.ordinalCount[q];
+            stats.choiceCount[q] = c.choiceCount[q];
+            if(stats.choiceFreq[q] != null && c.choiceFreq[q] != null){
+                System.arraycopy(c.choiceFreq[q], 0, stats.choiceFreq[q], 0, Math.min(c.choiceFreq[q].length, stats.choiceFreq[q].length));
+            }
+            if(stats.tokenFreq[q] != null){
+                for(String w : new TreeSet<>(c.tokenFreq.get(q).keySet())) stats.tokenFreq[q].put(data.intern(w), c.tokenFreq.get(q).get(w));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Writes the centroid (mean) of the cluster
+     * @param centroids Encoded centroids with the same schema
+     * @param k Row of the centroid
+     */
+    void writeCentroid(KmeansData centroids, int k){
+        for(int q = 0; q < data.nQuestions; q++){
+            switch (data.types[q]) {
+                case NUMERIC:
+                    centroids.numeric[q][k] = KmeansHelper.numericMean(numericSum[q], numericCount[q]);
+                    break;
+                case MULTIPLE_CHOICE:
+                    if(data.ordered[q]) centroids.ordinal[q][k] = KmeansHelper.MCquantitativeMean(data, q, ordinalSum[q], ordinalCount[q]);
+                    else centroids.choiceSets[q][k] = KmeansHelper.MCQualitativeMMean(choiceFreq[q], choiceCount[q]);
+                    break;
+                case OPEN_ENDED:
+                    int word = KmeansHelper.openEndedMean(tokenFreq[q]);
+                    centroids.openIds[q][k] = word;
+                    centroids.tokens[q][k] = word == KmeansData.MISSING ? null : new int[]{word};
+                    if(data.isTfIdf(q)) centroids.setTerms(q, k, tokenFreq[q]);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package domain.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Centroid model of the last clustering of a form, stored with the form so new answers can join
+ * an affinity group without running kmeans again.
+ * Every cluster keeps the statistics its centroid is built from (see ClusterStats), with the words of
+ * open ended questions as strings, plus its centroid at clustering time to measure how far the
+ * centroids drifted since then. Clusters are in the same order as the affinity groups of the form.
+ * The statistics and centroids are decoded once after the model is created or loaded and kept in transient
+ * caches, so every new answer only updates the statistics and centroid of its own cluster.
+ * OPEN_ENDED questions compared with TFIDF_COSINE keep the document frequencies of the clustering,
+ * so new answers are weighed with the same IDF as the clustered ones.
+ */
+final class ClusteringModel {
+    /**
+     * Statistics of one cluster, plain arrays and maps so it can be stored as JSON
+     */
+    static final class Cluster {
+        /**
+         * Attributes, same meaning as in ClusterStats, indexed by question
+         * tokenFreq: Times every word appears in the OPEN_ENDED answers of the cluster
+         */
+        int size;
+        double[] numericSum;
+        int[] numericCount;
+        long[] ordinalSum;
+        int[] ordinalCount;
+        int[][] choiceFreq;
+        int[] choiceCount;
+        ArrayList<HashMap<String,Integer>> tokenFreq;
+    }
+
+    /**
+     * Centroid of one cluster, plain arrays and maps so it can be stored as JSON
+     */
+    static final class Centroid {
+        /**
+         * Attributes, indexed by question
+         * numeric: Mean of every NUMERIC question, null if missing
+         * ordinal: Rank of the mean choice of every ordered MULTIPLE_CHOICE question, KmeansData.MISSING if missing
+         * choices: Choice set of every unordered MULTIPLE_CHOICE question, null if missing
+         * word: Most frequent word of every OPEN_ENDED question, null if missing
+         * terms: TF-IDF weight of every word of the TFIDF_COSINE questions (null for the others)
+         */
+        Double[] numeric;
+        int[] ordinal;
+        long[][] choices;
+        String[] word;
+        ArrayList<HashMap<String,Double>> terms;
+
+        /**
+         * Exports a row of encoded centroids
+         * @param centroids Encoded centroids
+         * @param k Row of the centroid
+         * @return Centroid with a copy of the row, words as strings
+         */
+        static Centroid of(KmeansData centroids, int k){
+            int nQ = centroids.nQuestions;
+            Centroid c = new Centroid();
+            c.numeric = new Double[nQ];
+            c.ordinal = new int[nQ];
+            c.choices = new long[nQ][];
+            c.word = new String[nQ];
+            c.terms = new ArrayList<>(nQ);
+            for(int q = 0; q < nQ; q++){
+                HashMap<String,Double> terms = null;
+                switch (centroids.types[q]) {
+                    case NUMERIC:
+                        double v = centroids.numeric[q][k];
+                        c.numeric[q] = Double.isNaN(v) ? null : v;
+                        break;
+                    case MULTIPLE_CHOICE:
+                        if(centroids.ordered[q]) c.ordinal[q] = centroids.ordinal[q][k];
+                        else c.choices[q] = centroids.choiceSets[q][k] == null ? null : centroids.choiceSets[q][k].clone();
+                        break;
+                    case OPEN_ENDED:
+                        int id = centroids.openIds[q][k];
+                        c.word[q] = id == KmeansData.MISSING ? null : centroids.dictionary.get(id);
+                        if(centroids.isTfIdf(q)){
+                            terms = new HashMap<>();
+                            int[] ids = centroids.termIds[q][k];
+                            if(ids != null) for(int i = 0; i < ids.length; i++) terms.put(centroids.dictionary.get(ids[i]), centroids.termWeights[q][k][i]);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                c.terms.add(terms);
+            }
+            return c;
+        }
+
+        /**
+         * Writes the centroid into a row of encoded centroids, words are interned in their dictionary
+         * @param centroids Encoded centroids with the schema of the model
+         * @param k Row of the centroid
+         */
+        void writeTo(KmeansData centroids, int k){
+            for(int q = 0; q < centroids.nQuestions; q++){
+                switch (centroids.types[q]) {
+                    case NUMERIC:
+                        centroids.numeric[q][k] = numeric[q] == null ? KmeansData.MISSING_NUMERIC : numeric[q];
+                        break;
+                    case MULTIPLE_CHOICE:
+                        if(centroids.ordered[q]) centroids.ordinal[q][k] = ordinal[q];
+                        else centroids.choiceSets[q][k] = choices[q] == null ? null : choices[q].clone();
+                        break;
+                    case OPEN_ENDED:
+                        int id = word[q] == null ? KmeansData.MISSING : centroids.intern(word[q]);
+                        centroids.openIds[q][k] = id;
+                        centroids.tokens[q][k] = id == KmeansData.MISSING ? null : new int[]{id};
+                        if(centroids.isTfIdf(q)){
+                            HashMap<Integer,Double> weights = new HashMap<>();
+                            for(String w : new TreeSet<>(terms.get(q).keySet())) weights.put(centroids.intern(w), terms.get(q).get(w));
+                            centroids.setTermWeights(q, k, weights);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Attributes
+     * k: K requested for the clustering, null if it was chosen by the elbow method
+     * algorithm: Algorithm of the clustering, null for models stored before it was recorded (BISECTING)
+     * batchSize: Answers per batch of the clustering, used if it was MINI_BATCH
+     * nQuestions: Number of questions of the form when it was clustered
+     * clusters: Current statistics of every cluster
+     * referenceCentroids: Centroid of every cluster at clustering time
+     * drift: Distance between the current and the clustering time centroid, per cluster
+     * clusteredAnswers: Number of answers of the clustering
+     * changes: Answers added or removed since the clustering
+     * openModes: How every OPEN_ENDED question was compared, null for models stored before it could be chosen (LEVENSHTEIN)
+     * documentFreq: Answers of the clustering that contained every word, per TFIDF_COSINE question (null for the others)
+     * documents: Answered rows the document frequencies were counted over, per question
+     * partial: True if the clustering stopped at its deadline, false for models stored before it could
+     * point: One row encoding new answers are encoded into, its dictionary holds the words of the caches (transient)
+     * stats: Statistics of every cluster over point (transient)
+     * centroids: Current centroid of every cluster (transient)
+     * references: Clustering time centroid of every cluster (transient)
+     * dictionaryLimit: Dictionary size of point over which the caches are decoded again, every new answer adds its words (transient)
+     */
+    private final Integer k;
+    private final Kmeans.Algorithm algorithm;
+    private final int batchSize;
+    private final int nQuestions;
+    private final ArrayList<Cluster> clusters;
+    private final ArrayList<Centroid> referenceCentroids;
+    private final double[] drift;
+    private final int clusteredAnswers;
+    private int changes;
+    private final Question.OpenDistance[] openModes;
+    private final ArrayList<HashMap<String,Integer>> documentFreq;
+    private final int[] documents;
+    private final boolean partial;
+    private transient KmeansData point;
+    private transient ClusterStats[] stats;
+    private transient KmeansData centroids;
+    private transient KmeansData references;
+    private transient int dictionaryLimit;
+
+    /**
+     * Creates the model of a clustering
+     * @param k K requested for the clustering, null if it was chosen by the elbow method
+     * @param algorithm Algorithm of the clustering
+     * @param batchSize Answers per batch of the clustering, used if it was MINI_BATCH
+     * @param nQuestions Number of questions of the form
+     * @param clusters Statistics of every cluster, in affinity group order
+     * @param data Encoded answers of the clustering
+     * @param partial True if the clustering stopped at its deadline
+     */
+    ClusteringModel(Integer k, Kmeans.Algorithm algorithm, int batchSize, int nQuestions, ArrayList<Cluster> clusters, KmeansData data, boolean partial){
+        this.k = k;
+        this.algorithm = algorithm;
+        this.batchSize = batchSize;
+        this.partial = partial;
+        this.nQuestions = nQuestions;
+        this.clusters = clusters;
+        this.referenceCentroids = new ArrayList<>(clusters.size());
+        KmeansData row = data.emptyLike(1);
+        for(Cluster c : clusters){
+            ClusterStats.fromModel(data, c).writeCentroid(row, 0);
+            referenceCentroids.add(Centroid.of(row, 0));
+        }
+        this.drift = new double[clusters.size()];
+        int total = 0;
+        for(Cluster c : clusters) total += c.size;
+        this.clusteredAnswers = total;
+        this.changes = 0;
+        this.openModes = data.openModes.clone();
+        this.documentFreq = new ArrayList<>(nQuestions);
+        this.documents = data.documents.clone();
+        for(int q = 0; q < nQuestions; q++){
+            HashMap<String,Integer> df = null;
+            if(data.isTfIdf(q)){
+                df = new HashMap<>();
+                int[] freq = data.documentFreq[q];
+                for(int w = 0; w < freq.length; w++) if(freq[w] > 0) df.put(data.dictionary.get(w), freq[w]);
+            }
+            documentFreq.add(df);
+        }
+    }
+
+    /**
+     * Decodes the statistics and centroids into the caches, once after the model is created or loaded and again
+     * when the words of the new answers have grown the dictionary past its limit
+     * @param questions The questions of the form
+     */
+    private void load(ArrayList<Question> questions){
+        if(point != null && point.dictionary.size() <= dictionaryLimit) return;
+        KmeansData schema = new KmeansData(questions, new ArrayList<>(), openModes);
+        for(int q = 0; q < schema.nQuestions; q++){
+            if(schema.isTfIdf(q)) schema.setDocumentFrequencies(q, documentFreq.get(q), documents[q]);
+        }
+        point = schema.emptyLike(1);
+        stats = new ClusterStats[clusters.size()];
+        centroids = point.emptyLike(clusters.size());
+        references = point.emptyLike(clusters.size());
+        for(int c = 0; c < clusters.size(); c++){
+            stats[c] = ClusterStats.fromModel(point, clusters.get(c));
+            stats[c].writeCentroid(centroids, c);
+            referenceCentroids.get(c).writeTo(references, c);
+        }
+        dictionaryLimit = 2 * point.dictionary.size() + 1024;
+    }
+
+    /**
+     * K requested for the clustering
+     * @return Integer K, null if it was chosen by the elbow method
+     */
+    Integer getK(){
+        return k;
+    }
+
+    /**
+     * Algorithm of the clustering, used when K was requested
+     * @return Kmeans.Algorithm of the clustering, BISECTING for models stored before it was recorded
+     */
+    Kmeans.Algorithm getAlgorithm(){
+        return algorithm == null ? Kmeans.Algorithm.BISECTING : algorithm;
+    }
+
+    /**
+     * Answers per batch of the clustering
+     * @return int batch size, meaningful if the algorithm is MINI_BATCH
+     */
+    int getBatchSize(){
+        return batchSize;
+    }
+
+    /**
+     * Tells if the clustering stopped at its deadline, its clusters are then the best found in time
+     * @return true if the clustering was cut short
+     */
+    boolean isPartial(){
+        return partial;
+    }
+
+    /**
+     * Number of clusters of the model
+     * @return int number of clusters
+     */
+    int size(){
+        return clusters.size();
+    }
+
+    /**
+     * Largest distance a centroid moved since the clustering
+     * @return double distance normalized between 0 and 1
+     */
+    double getDrift(){
+        double max = 0.0;
+        for(double d : drift) if(d > max) max = d;
+        return max;
+    }
+
+    /**
+     * Share of answers added or removed since the clustering
+     * @return double changes divided by the answers of the clustering
+     */
+    double getStaleness(){
+        return clusteredAnswers == 0 ? 1.0 : (double) changes / clusteredAnswers;
+    }
+
+    /**
+     * Tells if the model still fits the questions of the form
+     * @param questions The questions of the form
+     * @return true if the number of questions did not change
+     */
+    boolean fits(ArrayList<Question> questions){
+        return questions.size() == nQuestions && !clusters.isEmpty();
+    }
+
+    /**
+     * Statistics of a cluster
+     * @param c Index of the cluster (and affinity group)
+     * @return Cluster statistics, not copied
+     */
+    Cluster getCluster(int c){
+        return clusters.get(c);
+    }
+
+    /**
+     * Tells if the model describes a clustering of some encoded answers: same encoding and the same size for every cluster
+     * @param data Encoded answers
+     * @param stats Statistics of every cluster of the answers, in affinity group order
+     * @return true if the centroids of the model are the centroids of that clustering
+     */
+    boolean describes(KmeansData data, ClusterStats[] stats){
+        if(stats.length != clusters.size() || data.nQuestions != nQuestions || !Arrays.equals(data.openModes, openModes)) return false;
+        for(int c = 0; c < stats.length; c++) if(stats[c].size() != clusters.get(c).size) return false;
+        return true;
+    }
+
+    /**
+     * Assigns a cleaned answer to the closest centroid and adds it to the statistics of that cluster.
+     * Only the centroids are measured and only the chosen cluster is updated, the cost does not depend on the number of answers of the form
+     * @param questions The questions of the form
+     * @param cleanAnswer The answer, already cleaned
+     * @return int index of the cluster (and affinity group) of the answer
+     */
+    int add(ArrayList<Question> questions, Answer cleanAnswer){
+        load(questions);
+        point.encodeRow(0, questions, cleanAnswer);
+        int closest = 0;
+        double minDist = Double.POSITIVE_INFINITY;
+        for(int c = 0; c < clusters.size(); c++){
+            double d = point.distance(0, centroids, c, minDist);
+            if(d < minDist){
+                minDist = d;
+                closest = c;
+            }
+        }
+        stats[closest].add(0);
+        ClusterStats.count(point, 0, clusters.get(closest), 1);
+        update(closest);
+        return closest;
+    }
+
+    /**
+     * Removes a cleaned answer from the statistics of its cluster, the answer must have been counted in that cluster
+     * @param questions The questions of the form
+     * @param cleanAnswer The answer, already cleaned
+     * @param cluster Index of the cluster (and affinity group) of the answer
+     * @return int answers left in the cluster
+     */
+    int remove(ArrayList<Question> questions, Answer cleanAnswer, int cluster){
+        load(questions);
+        point.encodeRow(0, questions, cleanAnswer);
+        stats[cluster].remove(0);
+        ClusterStats.count(point, 0, clusters.get(cluster), -1);
+        update(cluster);
+        return stats[cluster].size();
+    }
+
+    /**
+     * Writes the centroid of a cluster after an answer was added or removed, and measures its drift
+     * @param cluster Index of the cluster
+     */
+    private void update(int cluster){
+        stats[cluster].writeCentroid(centroids, cluster);
+        changes++;
+        if(stats[cluster].size() == 0) return;
+        drift[cluster] = centroids.distance(cluster, references, cluster);
+    }
+}
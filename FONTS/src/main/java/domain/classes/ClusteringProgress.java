@@ -0,0 +1,19 @@
+package domain.classes;
+
+/**
+ * Listener of the progress of a clustering run, called after every assignment step.
+ * Candidate K values and restarts can run concurrently, so it may be called from several threads at once
+ */
+@FunctionalInterface
+public interface ClusteringProgress {
+    /**
+     * Reports one assignment step
+     * @param k K of the run
+     * @param iteration Iteration of the run, starting at 1 (the number of splits in the bisecting mode, the batch in the mini-batch
+     *                  mode, the PAM swap of the current sample in the k-medoids mode, the iteration over the summaries in the streaming mode)
+     * @param changes Answers that changed cluster in this step (the answers of the cluster split in the bisecting mode, the centroids
+     *                that moved in the mini-batch mode, the sample answers whose medoid changed in the k-medoids mode, the summaries
+     *                that changed cluster in the streaming mode)
+     */
+    void onProgress(int k, int iteration, int changes);
+}
@@ -0,0 +1,42 @@
+package domain.classes;
+
+/**
+ * Computes the NUMERIC and ordered MULTIPLE_CHOICE part of the distances between one encoded answer and all the rows
+ * of another encoding (usually the K centroids), the hot loop of the closest centroid search.
+ * Every implementation must add the questions in question order, so they all give the same sums to the last bit
+ * and the clusterings do not depend on the kernel in use.
+ */
+interface DistanceKernel {
+    /**
+     * Name of the class of the vectorized kernel, only loaded when the jdk.incubator.vector module is enabled
+     */
+    String VECTOR_KERNEL = "domain.classes.VectorDistanceKernel";
+
+    /**
+     * Computes the distances of the NUMERIC and ordered MULTIPLE_CHOICE questions between a row and every row of another encoding,
+     * questions unanswered on either side are not counted
+     * @param data Encoding of the row
+     * @param row Row of data
+     * @param centroids Other encoding, same questions as data
+     * @param sum Output, sum of the distances of the counted questions, per row of centroids
+     * @param count Output, number of counted questions, per row of centroids (whole numbers, kept as double so the kernel
+     * can count in the same lanes as the sums)
+     */
+    void partialDistances(KmeansData data, int row, KmeansData centroids, double[] sum, double[] count);
+
+    /**
+     * Gets the kernel for this JVM: the vectorized one if the jdk.incubator.vector module is enabled
+     * (--add-modules jdk.incubator.vector) and usable on this machine, the scalar one otherwise
+     * @return DistanceKernel to use
+     */
+    static DistanceKernel load(){
+        if(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()){
+            try {
+                return (DistanceKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                //sense SIMD util es fa servir el nucli escalar
+            }
+        }
+        return new ScalarDistanceKernel();
+    }
+}
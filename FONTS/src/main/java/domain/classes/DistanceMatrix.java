@@ -0,0 +1,115 @@
+package domain.classes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Condensed matrix of the distances between every pair of encoded answers, in float precision.
+ * Only the pairs i < j are stored, row after row, so it takes n(n-1)/2 floats: a heap array while it is small,
+ * direct (off-heap) buffers once it is large. Rows are filled apart, so the matrix can be computed in parallel tiles.
+ */
+final class DistanceMatrix {
+    /**
+     * Attributes
+     * n: Number of encoded answers
+     * size: Number of stored pairs
+     * heap: Storage while size is at most HEAP_LIMIT, null otherwise
+     * segments: Off-heap storage, SEGMENT_SIZE floats per buffer, null while heap is used
+     * HEAP_LIMIT: Largest number of pairs stored on the heap
+     * SEGMENT_SIZE: Floats per direct buffer
+     */
+    final int n;
+    private final long size;
+    private final float[] heap;
+    private final FloatBuffer[] segments;
+    static final long HEAP_LIMIT = 1L << 24;
+    private static final int SEGMENT_SIZE = 1 << 27;
+
+    /**
+     * Creates an empty matrix
+     * @param n Number of encoded answers
+     */
+    private DistanceMatrix(int n){
+        this.n = n;
+        this.size = pairs(n);
+        if(size <= HEAP_LIMIT){
+            heap = new float[(int) size];
+            segments = null;
+        }
+        else{
+            heap = null;
+            segments = new FloatBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for(int s = 0; s < segments.length; s++){
+                long floats = Math.min(SEGMENT_SIZE, size - (long) s * SEGMENT_SIZE);
+                segments[s] = ByteBuffer.allocateDirect((int) floats * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+        }
+    }
+
+    /**
+     * Creates an empty matrix if it fits in the memory budget
+     * @param n Number of encoded answers
+     * @param budgetBytes Maximum bytes the matrix may take
+     * @return DistanceMatrix to be filled, null if it does not fit
+     */
+    static DistanceMatrix create(int n, long budgetBytes){
+        if(n < 2 || pairs(n) * Float.BYTES > budgetBytes) return null;
+        return new DistanceMatrix(n);
+    }
+
+    /**
+     * Number of pairs of n answers
+     * @param n Number of answers
+     * @return long n(n-1)/2
+     */
+    static long pairs(int n){
+        return (long) n * (n - 1) / 2;
+    }
+
+    /**
+     * Computes the distances of the rows in [from, to) to every later row
+     * @param data Encoded answers, n rows
+     * @param from First row
+     * @param to Last row (exclusive)
+     */
+    void fillRows(KmeansData data, int from, int to){
+        for(int i = from; i < to; i++){
+            long base = index(i, i + 1);
+            for(int j = i + 1; j < n; j++) put(base + (j - i - 1), (float) data.distance(i, data, j));
+        }
+    }
+
+    /**
+     * Distance between two answers
+     * @param i Row of the first answer
+     * @param j Row of the second answer
+     * @return double stored distance, 0 if i == j
+     */
+    double get(int i, int j){
+        if(i == j) return 0.0;
+        long idx = i < j ? index(i, j) : index(j, i);
+        if(heap != null) return heap[(int) idx];
+        return segments[(int) (idx / SEGMENT_SIZE)].get((int) (idx % SEGMENT_SIZE));
+    }
+
+    /**
+     * Position of the pair (i, j), i < j, in the condensed storage
+     * @param i Smaller row
+     * @param j Larger row
+     * @return long position
+     */
+    private long index(int i, int j){
+        return (long) i * (2L * n - i - 1) / 2 + (j - i - 1);
+    }
+
+    /**
+     * Stores a distance
+     * @param idx Position in the condensed storage
+     * @param d Distance
+     */
+    private void put(long idx, float d){
+        if(heap != null) heap[(int) idx] = d;
+        else segments[(int) (idx / SEGMENT_SIZE)].put((int) (idx % SEGMENT_SIZE), d);
+    }
+}
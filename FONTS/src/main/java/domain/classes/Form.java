@@ -34,9 +34,37 @@ public class Form {
      */
     private ArrayList<AffinityGroup> affinityGroups;  
     /**
-     * Kmeans clustering instance for the form
+     * Kmeans clustering instance for the form, never stored (the centroid model is)
      */  
-    private Kmeans kmeans;
+    private transient Kmeans kmeans;
+    /**
+     * True while the last clustering of kmeans matches the affinity groups (no answer was added or removed incrementally)
+     */
+    private transient boolean kmeansCurrent;
+    /**
+     * Centroid model of the last clustering, new answers are assigned with it
+     */
+    private ClusteringModel clusteringModel;
+    /**
+     * Centroid drift that triggers a new clustering, null for the default one
+     */
+    private Double clusteringDriftThreshold;
+    /**
+     * Default centroid drift that triggers a new clustering
+     */
+    public static final double DEFAULT_DRIFT_THRESHOLD = 0.1;
+    /**
+     * Share of answers added or removed since the last clustering that triggers a new one, null for the default one
+     */
+    private Double clusteringStalenessBudget;
+    /**
+     * Default share of answers added or removed since the last clustering that triggers a new one
+     */
+    public static final double DEFAULT_STALENESS_BUDGET = 0.25;
+    /**
+     * How OPEN_ENDED answers are compared by default, null for LEVENSHTEIN
+     */
+    private Question.OpenDistance openDistance;
 
     /**
      * Generates a unique ID for the form based on its title
@@ -62,6 +90,10 @@ public class Form {
         this.affinityGroups = new ArrayList<>();
         this.UFID = generateUID(title, description);
         this.kmeans = null;
+        this.clusteringModel = null;
+        this.clusteringDriftThreshold = null;
+        this.clusteringStalenessBudget = null;
+        this.openDistance = null;
     }
 
     // ---------------------------------------------------------
@@ -204,7 +236,10 @@ public class Form {
      * @param q Question to be added to the form
      */
     public void addQuestion(Question q){
-        if (q!=null) questions.add(q);
+        if (q!=null){
+            questions.add(q);
+            clusteringModel = null;
+        }
     }
 
     /**
@@ -213,7 +248,43 @@ public class Form {
      */
     public void deleteQuestion(int index){
         //only if index is valid
-        if (index >= 0 && index < questions.size()) questions.remove(index);
+        if (index >= 0 && index < questions.size()){
+            questions.remove(index);
+            clusteringModel = null;
+        }
+    }
+
+    /**
+     * Lets the form cluster with a Kmeans instance kept by the caller, with the settings and the bisecting hierarchy it holds
+     * Forms loaded from persistence start without one
+     * @param kmeans The Kmeans instance
+     */
+    public void setKmeans(Kmeans kmeans){
+        if(kmeans == null) throw new IllegalArgumentException("Kmeans is null");
+        this.kmeans = kmeans;
+        this.kmeansCurrent = false;
+    }
+
+    /**
+     * Sets how the next clusterings of the form can be stopped and followed
+     * @param token Cancellation token, the clustering throws a CancellationException once it is cancelled, null for none
+     * @param deadlineMillis Wall-clock deadline in milliseconds since the epoch, the best clustering found by then is kept, Long.MAX_VALUE for none
+     * @param listener Listener of the current K, iteration and assignment changes, null for none
+     */
+    public void setClusteringControl(CancellationToken token, long deadlineMillis, ClusteringProgress listener){
+        if(kmeans == null) kmeans = new Kmeans(this);
+        kmeans.setCancellationToken(token);
+        kmeans.setDeadline(deadlineMillis);
+        kmeans.setProgressListener(listener);
+    }
+
+    /**
+     * Tells if the last clustering stopped at its deadline, its affinity groups are then the best found in time
+     * It is stored with the clustering, so evaluating it or loading the form again does not change it
+     * @return true if the deadline cut the last clustering short
+     */
+    public boolean isClusteringPartial(){
+        return clusteringModel != null && clusteringModel.isPartial();
     }
 
     /**
@@ -237,6 +308,22 @@ public class Form {
         if(kmeans == null) kmeans = new Kmeans(this);
         ArrayList<AffinityGroup> ag = kmeans.createClustersElbowMethod(this,answers);
         this.affinityGroups = ag;
+        this.kmeansCurrent = true;
+        this.clusteringModel = kmeans.buildModel(null);
+    }
+
+    /**
+     * Executes the K-means clustering algorithm on the form's answers, uses a budgeted elbow method to set the best K
+     * The K is searched on a sample of the answers with at most budget clusterings, instead of trying every K up to sqrt(n)
+     * Creates and stores the resulting affinity groups in the form
+     * @param answers The list of answers to the form
+     * @param budget The maximum number of clusterings of the K search, at least 3
+     */
+    public void executeKmeansElbowMethod(ArrayList<Answer> answers, int budget) throws Exception {
+        if(kmeans == null) kmeans = new Kmeans(this);
+        kmeans.setKSearchBudget(budget);
+        kmeans.setKSearch(Kmeans.KSearch.BUDGETED);
+        executeKmeansElbowMethod(answers);
     }
 
     /**
@@ -250,6 +337,284 @@ public class Form {
         kmeans.setK(k);
         ArrayList<AffinityGroup> ag = kmeans.createClustersSetK(this,answers);
         this.affinityGroups = ag;
+        this.kmeansCurrent = true;
+        this.clusteringModel = kmeans.buildModel(k);
+    }
+
+    /**
+     * Executes the K-means clustering algorithm on the form's answers, setting the number of clusters to K
+     * and the number of threads of the assignment and centroid update phases
+     * Creates and stores the resulting affinity groups in the form
+     * @param answers The list of answers to the form
+     * @param k The number of clusters
+     * @param parallelism The number of threads, 1 runs sequentially
+     */
+    public void executeKmeansSetK(ArrayList<Answer> answers, int k, int parallelism) throws Exception {
+        if(kmeans == null) kmeans =  new Kmeans(this);
+        kmeans.setParallelism(parallelism);
+        executeKmeansSetK(answers, k);
+    }
+
+    /**
+     * Executes the bisecting K-means clustering algorithm on the form's answers, setting the number of clusters to K
+     * The cluster hierarchy is built once and kept while the answers do not change, so trying another K reads it from the hierarchy
+     * Creates and stores the resulting affinity groups in the form
+     * @param answers The list of answers to the form
+     * @param k The number of clusters
+     */
+    public void executeKmeansBisecting(ArrayList<Answer> answers, int k) throws Exception {
+        if(kmeans == null) kmeans =  new Kmeans(this);
+        kmeans.setK(k);
+        ArrayList<AffinityGroup> ag = kmeans.createClustersBisecting(this,answers);
+        this.affinityGroups = ag;
+        this.kmeansCurrent = true;
+        this.clusteringModel = kmeans.buildModel(k);
+    }
+
+    /**
+     * Executes the mini-batch K-means clustering algorithm on the form's answers, setting the number of clusters to K
+     * Meant for forms with a very large number of answers, centroids learn from random batches of answers
+     * Creates and stores the resulting affinity groups in the form
+     * @param answers The list of answers to the form
+     * @param k The number of clusters
+     * @param batchSize The number of answers of every batch
+     */
+    public void executeKmeansMiniBatch(ArrayList<Answer> answers, int k, int batchSize) throws Exception {
+        if(kmeans == null) kmeans =  new Kmeans(this);
+        kmeans.setK(k);
+        kmeans.setBatchSize(batchSize);
+        ArrayList<AffinityGroup> ag = kmeans.createClustersMiniBatch(this,answers);
+        this.affinityGroups = ag;
+        this.kmeansCurrent = true;
+        this.clusteringModel = kmeans.buildModel(k);
+    }
+
+    /**
+     * Executes the k-medoids (CLARA) clustering algorithm on the form's answers, setting the number of clusters to K
+     * Every affinity group is built around a real answer, which is its representative
+     * Creates and stores the resulting affinity groups in the form
+     * @param answers The list of answers to the form
+     * @param k The number of clusters
+     */
+    public void executeKmedoids(ArrayList<Answer> answers, int k) throws Exception {
+        if(kmeans == null) kmeans =  new Kmeans(this);
+        kmeans.setK(k);
+        ArrayList<AffinityGroup> ag = kmeans.createClustersKMedoids(this,answers);
+        this.affinityGroups = ag;
+        this.kmeansCurrent = true;
+        this.clusteringModel = kmeans.buildModel(k);
+    }
+
+    /**
+     * Executes the streaming (BIRCH) clustering algorithm on the form's answers, setting the number of clusters to K
+     * Answers are read one at a time into bounded cluster summaries, meant for forms whose answers do not fit in memory
+     * Creates and stores the resulting affinity groups in the form
+     * @param answers The answers to the form, iterated more than once
+     * @param k The number of clusters
+     */
+    public void executeKmeansStreaming(Iterable<Answer> answers, int k) throws Exception {
+        if(kmeans == null) kmeans =  new Kmeans(this);
+        kmeans.setK(k);
+        ArrayList<AffinityGroup> ag = kmeans.createClustersStreaming(this,answers);
+        this.affinityGroups = ag;
+        this.kmeansCurrent = false; //nothing evaluable is kept, evaluations rebuild it from the groups
+        this.clusteringModel = kmeans.buildModel(k);
+    }
+
+    /**
+     * Sets the centroid drift that triggers a new clustering when answers are added
+     * @param threshold Distance a centroid may move since the last clustering, between 0 and 1
+     * @throws IllegalArgumentException if threshold is not between 0 and 1
+     */
+    public void setClusteringDriftThreshold(double threshold){
+        if(threshold < 0.0 || threshold > 1.0) throw new IllegalArgumentException("Drift threshold must be between 0 and 1: "+threshold);
+        this.clusteringDriftThreshold = threshold;
+    }
+
+    /**
+     * Gets the centroid drift that triggers a new clustering when answers are added
+     * @return double threshold, DEFAULT_DRIFT_THRESHOLD if not set
+     */
+    public double getClusteringDriftThreshold(){
+        return clusteringDriftThreshold == null ? DEFAULT_DRIFT_THRESHOLD : clusteringDriftThreshold;
+    }
+
+    /**
+     * Sets the share of answers that may be added or removed incrementally before the form is clustered again
+     * @param budget Changes divided by the answers of the last clustering, not negative
+     * @throws IllegalArgumentException if budget is negative
+     */
+    public void setClusteringStalenessBudget(double budget){
+        if(budget < 0.0) throw new IllegalArgumentException("Staleness budget must not be negative: "+budget);
+        this.clusteringStalenessBudget = budget;
+    }
+
+    /**
+     * Gets the share of answers that may be added or removed incrementally before the form is clustered again
+     * @return double budget, DEFAULT_STALENESS_BUDGET if not set
+     */
+    public double getClusteringStalenessBudget(){
+        return clusteringStalenessBudget == null ? DEFAULT_STALENESS_BUDGET : clusteringStalenessBudget;
+    }
+
+    /**
+     * Sets how OPEN_ENDED answers are compared by default, questions with their own OpenDistance keep it.
+     * The stored clustering no longer fits and the next one must be computed from scratch
+     * @param openDistance The OpenDistance, null for LEVENSHTEIN
+     */
+    public void setOpenDistance(Question.OpenDistance openDistance){
+        this.openDistance = openDistance;
+        this.clusteringModel = null;
+        this.kmeans = null;
+    }
+
+    /**
+     * Gets how OPEN_ENDED answers are compared by default
+     * @return OpenDistance of the form
+     */
+    public Question.OpenDistance getOpenDistance(){
+        return openDistance == null ? Question.OpenDistance.LEVENSHTEIN : openDistance;
+    }
+
+    /**
+     * Sets how the answers of one OPEN_ENDED question are compared.
+     * The stored clustering no longer fits and the next one must be computed from scratch
+     * @param index Index of the question
+     * @param openDistance The OpenDistance, null to use the one of the form
+     * @throws IllegalArgumentException if the index is not valid or the question is not OPEN_ENDED
+     */
+    public void setQuestionOpenDistance(int index, Question.OpenDistance openDistance){
+        if(index < 0 || index >= questions.size()) throw new IllegalArgumentException("Invalid question index: " + index);
+        Question q = questions.get(index);
+        if(q.getQuestionType() != Question.QuestionType.OPEN_ENDED) throw new IllegalArgumentException("Question " + index + " is not OPEN_ENDED");
+        q.setOpenDistance(openDistance);
+        this.clusteringModel = null;
+        this.kmeans = null;
+    }
+
+    /**
+     * Adds a new answer to the affinity group of its closest stored centroid, without running kmeans
+     * The answer is cleaned once and only compared with the centroids
+     * @param answer The new answer
+     * @return true if the answer joined a group, false if the form has no stored clustering or the responder already is in a group
+     */
+    public boolean assignToClustering(Answer answer){
+        if(clusteringModel == null || !clusteringModel.fits(questions) || affinityGroups.size() != clusteringModel.size()) return false;
+        for(AffinityGroup ag : affinityGroups){
+            if(ag.isMember(answer.getResponderUUID())) return false;
+        }
+        int group = clusteringModel.add(questions, KmeansHelper.cleanData(answer));
+        affinityGroups.get(group).addMember(answer.getResponderUUID());
+        kmeansCurrent = false;
+        return true;
+    }
+
+    /**
+     * Removes an answer from its affinity group and its contribution from the stored centroid, without running kmeans
+     * If the responder was the representative, the first remaining member represents the group until the next clustering
+     * @param answer The answer being deleted, as it was clustered
+     * @return true if the answer left its group, false if the form has no stored clustering, the responder is in no group
+     * or the group would be left empty (the form must be clustered again)
+     */
+    public boolean removeFromClustering(Answer answer){
+        if(clusteringModel == null || !clusteringModel.fits(questions) || affinityGroups.size() != clusteringModel.size()) return false;
+        Integer responder = answer.getResponderUUID();
+        int group = -1;
+        for(int i = 0; i < affinityGroups.size() && group < 0; i++){
+            if(affinityGroups.get(i).isMember(responder)) group = i;
+        }
+        if(group < 0) return false;
+        AffinityGroup ag = affinityGroups.get(group);
+        if(ag.getMemberCount() <= 1) return false;
+        clusteringModel.remove(questions, KmeansHelper.cleanData(answer), group);
+        if(responder.equals(ag.getRepresentativeID())){
+            ArrayList<Integer> members = ag.getMemberIDs();
+            members.remove(responder);
+            ag.setRepresentative(members.get(0));
+        }
+        ag.removeMember(responder);
+        kmeansCurrent = false;
+        return true;
+    }
+
+    /**
+     * Moves a modified answer between affinity groups: the old answer leaves its group and the new one joins the closest stored centroid
+     * @param oldAnswer The answer as it was clustered
+     * @param newAnswer The modified answer of the same responder
+     * @return true if the move was done incrementally, false if the form must be clustered again
+     */
+    public boolean moveInClustering(Answer oldAnswer, Answer newAnswer){
+        return removeFromClustering(oldAnswer) && assignToClustering(newAnswer);
+    }
+
+    /**
+     * Tells if a stored centroid moved more than the drift threshold since the last clustering
+     * @return true if the form should be clustered again
+     */
+    public boolean clusteringDrifted(){
+        return clusteringModel != null && clusteringModel.getDrift() > getClusteringDriftThreshold();
+    }
+
+    /**
+     * Tells if more answers than the staleness budget were added or removed incrementally since the last clustering
+     * @return true if the form should be clustered again
+     */
+    public boolean clusteringStale(){
+        return clusteringModel != null && clusteringModel.getStaleness() > getClusteringStalenessBudget();
+    }
+
+    /**
+     * Tells if the stored clustering is out of date, because a centroid drifted or too many answers changed
+     * @return true if the form should be clustered again
+     */
+    public boolean clusteringOutdated(){
+        return clusteringDrifted() || clusteringStale();
+    }
+
+    /**
+     * Clusters the form again the same way as the last clustering: with the requested K and the same algorithm (bisecting kmeans
+     * for clusterings stored before the algorithm was recorded), or with the elbow method
+     * Without answers the form is left with no affinity groups
+     * @param answers The list of answers to the form
+     */
+    public void recluster(ArrayList<Answer> answers) throws Exception {
+        if(answers.isEmpty()){
+            this.affinityGroups = new ArrayList<>();
+            this.clusteringModel = null;
+            return;
+        }
+        Integer k = clusteringModel == null ? null : clusteringModel.getK();
+        if(k == null){
+            executeKmeansElbowMethod(answers);
+            return;
+        }
+        switch (clusteringModel.getAlgorithm()) {
+            case LLOYD:
+                executeKmeansSetK(answers, k);
+                break;
+            case MINI_BATCH:
+                executeKmeansMiniBatch(answers, k, clusteringModel.getBatchSize());
+                break;
+            case KMEDOIDS:
+                executeKmedoids(answers, k);
+                break;
+            case STREAMING:
+                executeKmeansStreaming(answers, k);
+                break;
+            default:
+                executeKmeansBisecting(answers, k);
+                break;
+        }
+    }
+
+    /**
+     * Keeps the pairwise distances of the answers between clusterings and evaluations, so evaluating a clustering
+     * right after executing it does not measure them again
+     * @param keep true to keep them, false releases them
+     */
+    public void setKeepDistances(boolean keep){
+        if(kmeans == null) kmeans = new Kmeans(this);
+        kmeans.setKeepDistances(keep);
     }
 
     /**
@@ -264,6 +629,57 @@ public class Form {
         }
     }
 
+    /**
+     * Evaluates the clustering of the affinity groups using the Silhouette method, exactly or approximately
+     * SIMPLIFIED and SAMPLED are meant for forms with many answers, where the exact silhouette is too slow
+     * @param mode EXACT, SIMPLIFIED (distances to the centroids) or SAMPLED (stratified sample with confidence interval)
+     * @return SilhouetteEvaluation with the score of the clustering
+     * @throws FormNotExecutedClustering if clustering has not been executed yet
+     */
+    public SilhouetteEvaluation evaluateCluster(Kmeans.SilhouetteMode mode) throws FormException{
+        if(affinityGroups.isEmpty() || kmeans == null) throw new FormNotExecutedClustering(this.UFID);
+        else {
+            return kmeans.evaluateClusteringSilhouete(mode);
+        }
+    }
+
+    /**
+     * Evaluates the stored clustering (the current affinity groups) using the Silhouette method, without running kmeans again
+     * @param answers The list of answers to the form, only used if the clustering of this session is not up to date
+     * @param mode EXACT, SIMPLIFIED (distances to the centroids) or SAMPLED (stratified sample with confidence interval)
+     * @return SilhouetteEvaluation with the score of the clustering
+     * @throws FormNotExecutedClustering if clustering has not been executed yet
+     */
+    public SilhouetteEvaluation evaluateStoredCluster(ArrayList<Answer> answers, Kmeans.SilhouetteMode mode) throws FormException{
+        restoreKmeans(answers);
+        return kmeans.evaluateClusteringSilhouete(mode);
+    }
+
+    /**
+     * Gets the Within-Cluster Sum of Squares of the stored clustering (the current affinity groups), without running kmeans again
+     * @param answers The list of answers to the form, only used if the clustering of this session is not up to date
+     * @return double WCSS of the clustering, lower is better
+     * @throws FormNotExecutedClustering if clustering has not been executed yet
+     */
+    public double evaluateStoredClusterWCSS(ArrayList<Answer> answers) throws FormException{
+        restoreKmeans(answers);
+        return kmeans.evaluateClusteringWCSS();
+    }
+
+    /**
+     * Makes the kmeans instance hold the stored clustering, rebuilding it from the affinity groups and the centroid model if it is not up to date
+     * The cleaned answers the kmeans instance already holds are reused if they are the same
+     * @param answers The list of answers to the form
+     * @throws FormNotExecutedClustering if clustering has not been executed yet
+     */
+    private void restoreKmeans(ArrayList<Answer> answers) throws FormException{
+        if(affinityGroups.isEmpty()) throw new FormNotExecutedClustering(this.UFID);
+        if(kmeans != null && kmeansCurrent) return;
+        if(kmeans == null) kmeans = new Kmeans(this);
+        kmeans.restoreClustering(this, answers, affinityGroups, clusteringModel);
+        kmeansCurrent = true;
+    }
+
     /**
      * Creates the scatter chart for the answers clusters
      * @param answers
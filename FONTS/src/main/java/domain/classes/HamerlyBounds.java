@@ -0,0 +1,192 @@
+package domain.classes;
+
+import java.util.Random;
+
+/**
+ * Distance bounds of the accelerated (Hamerly) assignment of a kmeans run.
+ * Every answer keeps an upper bound of the distance to its centroid and a lower bound of the distance
+ * to any other centroid, both corrected with how much the centroids moved, so most answers keep their
+ * cluster without measuring any distance. Only valid when the distance meets the triangle inequality.
+ */
+final class HamerlyBounds {
+    /**
+     * Attributes
+     * upper: Upper bound of the distance of every row to its assigned centroid
+     * lower: Lower bound of the distance of every row to any other centroid
+     * drift: Distance every centroid moved in the last update
+     * half: Half the distance from every centroid to its closest other centroid
+     * maxDrift, secondDrift: Largest and second largest drift, argMaxDrift the centroid with the largest one
+     * ready: False until the first full assignment has set the bounds
+     * random: Fixed seed sampler of the triples checked at every centroid update
+     * METRIC_SAMPLES: Triples of answers checked by looksMetric
+     * CENTROID_SAMPLES: Triples mixing answers and centroids checked by moveCentroids
+     */
+    private final double[] upper;
+    private final double[] lower;
+    private double[] drift;
+    private double[] half;
+    private double maxDrift, secondDrift;
+    private int argMaxDrift;
+    private boolean ready;
+    private final Random random;
+    static final int METRIC_SAMPLES = 2000;
+    static final int CENTROID_SAMPLES = 64;
+
+    /**
+     * Creates the bounds of a run
+     * @param nRows Number of encoded answers
+     */
+    HamerlyBounds(int nRows){
+        upper = new double[nRows];
+        lower = new double[nRows];
+        ready = false;
+        random = new Random(0);
+    }
+
+    /**
+     * Updates the centroid information after the centroids moved, must be called before the next assignment.
+     * Centroids can have missing cells that no answer has, so the triangle inequality is sampled again on
+     * triples mixing answers with the old and new centroids, the ones the bounds rely on
+     * @param data Encoded answers
+     * @param oldCentroids Centroids of the last assignment
+     * @param newCentroids Centroids of the next assignment, same number of rows
+     * @return false if a sampled triple broke the triangle inequality, the bounds must not be used anymore
+     */
+    boolean moveCentroids(KmeansData data, KmeansData oldCentroids, KmeansData newCentroids){
+        int K = newCentroids.nRows;
+        drift = new double[K];
+        maxDrift = 0.0;
+        secondDrift = 0.0;
+        argMaxDrift = -1;
+        for(int k = 0; k < K; k++){
+            drift[k] = newCentroids.distance(k, oldCentroids, k);
+            if(drift[k] > maxDrift){
+                secondDrift = maxDrift;
+                maxDrift = drift[k];
+                argMaxDrift = k;
+            }
+            else if(drift[k] > secondDrift) secondDrift = drift[k];
+        }
+        half = new double[K];
+        for(int k = 0; k < K; k++) half[k] = Double.POSITIVE_INFINITY;
+        for(int k = 0; k < K; k++){
+            for(int j = k + 1; j < K; j++){
+                double d = 0.5 * newCentroids.distance(k, newCentroids, j);
+                if(d < half[k]) half[k] = d;
+                if(d < half[j]) half[j] = d;
+            }
+        }
+        return centroidsLookMetric(data, oldCentroids, newCentroids);
+    }
+
+    /**
+     * Checks the triangle inequality on a sample of triples with one or two of the new centroids,
+     * the drift of each sampled centroid is checked against its old position too
+     * @param data Encoded answers
+     * @param oldCentroids Centroids of the last assignment
+     * @param centroids New centroids
+     * @return true if no violation was found
+     */
+    private boolean centroidsLookMetric(KmeansData data, KmeansData oldCentroids, KmeansData centroids){
+        int K = centroids.nRows;
+        for(int s = 0; s < CENTROID_SAMPLES; s++){
+            int a = random.nextInt(data.nRows), b = random.nextInt(data.nRows);
+            int k = random.nextInt(K), j = random.nextInt(K);
+            if(centroids.distance(k, centroids, k) > 0.0) return false;
+            double ak = data.distance(a, centroids, k), aj = data.distance(a, centroids, j), bk = data.distance(b, centroids, k);
+            double ab = data.distance(a, data, b), kj = centroids.distance(k, centroids, j);
+            if(kj > ak + aj + 1e-12 || aj > ak + kj + 1e-12 || ak > aj + kj + 1e-12) return false;
+            if(ak > ab + bk + 1e-12 || bk > ab + ak + 1e-12) return false;
+            //el limit superior es corregeix amb el desplacament: |d(a,k nou) - d(a,k vell)| <= drift
+            if(Math.abs(ak - data.distance(a, oldCentroids, k)) > drift[k] + 1e-12) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the closest centroid of a row, measuring distances only when the bounds cannot prove the current one is still the closest.
+     * Pruning uses strict comparisons, so the result equals the exact search (lowest index on ties) whenever the distance is a metric
+     * @param data Encoded answers
+     * @param row Row of the answer
+     * @param centroids Current centroids
+     * @param current Centroid of the row in the last assignment (ignored on the first one)
+     * @return int index of the closest centroid
+     */
+    int assign(KmeansData data, int row, KmeansData centroids, int current){
+        if(ready){
+            upper[row] += drift[current];
+            lower[row] -= current == argMaxDrift ? secondDrift : maxDrift;
+            double z = Math.max(lower[row], half[current]);
+            if(upper[row] < z) return current;
+            upper[row] = data.distance(row, centroids, current);
+            if(upper[row] < z) return current;
+        }
+        double best = Double.POSITIVE_INFINITY, second = Double.POSITIVE_INFINITY;
+        int closest = 0;
+        for(int k = 0; k < centroids.nRows; k++){
+            double d = data.distance(row, centroids, k);
+            if(d < best){
+                second = best;
+                best = d;
+                closest = k;
+            }
+            else if(d < second) second = d;
+        }
+        upper[row] = best;
+        lower[row] = second;
+        return closest;
+    }
+
+    /**
+     * Marks the bounds as set, once every row went through a full assignment
+     */
+    void setReady(){
+        ready = true;
+    }
+
+    /**
+     * Checks the triangle inequality (and zero self distance) on a sample of answer triples.
+     * A form without open ended questions and without missing answers is always a metric (average of metrics),
+     * any other form is sampled, with a fixed seed so the check does not depend on the run
+     * @param data Encoded answers
+     * @return true if no violation was found
+     */
+    static boolean looksMetric(KmeansData data){
+        boolean surelyMetric = true;
+        for(int q = 0; q < data.nQuestions && surelyMetric; q++){
+            if(data.types[q] == Question.QuestionType.OPEN_ENDED) surelyMetric = false;
+            for(int row = 0; row < data.nRows && surelyMetric; row++){
+                if(isMissing(data, q, row)) surelyMetric = false;
+            }
+        }
+        if(surelyMetric) return true;
+        Random random = new Random(0);
+        for(int s = 0; s < METRIC_SAMPLES; s++){
+            int a = random.nextInt(data.nRows), b = random.nextInt(data.nRows), c = random.nextInt(data.nRows);
+            if(data.distance(a, data, a) > 0.0) return false;
+            double ab = data.distance(a, data, b), bc = data.distance(b, data, c), ac = data.distance(a, data, c);
+            if(ac > ab + bc + 1e-12) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a cell of the encoded answers is missing
+     * @param data Encoded answers
+     * @param q Column index
+     * @param row Row index
+     * @return true if unanswered
+     */
+    private static boolean isMissing(KmeansData data, int q, int row){
+        switch (data.types[q]) {
+            case NUMERIC:
+                return Double.isNaN(data.numeric[q][row]);
+            case MULTIPLE_CHOICE:
+                return data.ordered[q] ? data.ordinal[q][row] == KmeansData.MISSING : data.choiceSets[q][row] == null;
+            case OPEN_ENDED:
+                return data.openIds[q][row] == KmeansData.MISSING;
+            default:
+                return true;
+        }
+    }
+}
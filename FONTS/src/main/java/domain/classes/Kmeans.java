@@ -1,49 +1,200 @@
 package domain.classes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
 
 
-/** Class to encapsulate the result of a kmeans execution, stores the clusters and the centroids
-*/
-final class KmeansRes{
+/**
+ * Kmeans class implements the K-means clustering algorithm for grouping form answers  
+ */
+public class Kmeans{
     /**
-     * Atribute: Stores the clusters
+     * How answers are assigned to their closest centroid
+     * EXACT: every distance to every centroid is measured
+     * HAMERLY: per answer distance bounds skip most distances, falls back to EXACT when the distance of the form is not a metric
      */
-    public ArrayList<ArrayList<Answer>> clusters;
+    public enum Assignment {
+        EXACT,
+        HAMERLY,
+    }
     /**
-     * Atribute: Stores the centroids
+     * How the initial centroids of a run are picked
+     * KMEANS_PLUS: kmeans++ over every answer, every round measures the full distance of every answer to the last centroid
+     * CANOPY: kmeans++ restricted to canopies built with a cheap proxy distance (NUMERIC and MULTIPLE_CHOICE questions only),
+     *         every round measures the full distance only to the answers that share a canopy with the last centroid
      */
-    public ArrayList<Answer> centroids;
+    public enum Seeding {
+        KMEANS_PLUS,
+        CANOPY,
+    }
     /**
-     * Simple Creator for KmeansRes
-     * @param clusters The Array of Arrays of answers that represent the cluster
-     * @param centroids The Array of Answers that represent the centroids
-     */    
-    public KmeansRes( ArrayList<ArrayList<Answer>> clusters,ArrayList<Answer> centroids ){
-        this.clusters = clusters;
-        this.centroids = centroids;
+     * How the elbow method searches the K of the form
+     * SWEEP: every K from 1 to sqrt(n) on every answer
+     * BUDGETED: a geometric grid of K values, refined around the elbow with a golden-section search, on a sample of the answers
+     *           and with a maximum number of clusterings; only the K chosen is clustered on every answer
+     */
+    public enum KSearch {
+        SWEEP,
+        BUDGETED,
+    }
+    /**
+     * Which cluster the bisecting kmeans splits next
+     * LARGEST: the cluster with most answers
+     * WORST: the cluster with the largest sum of squared distances to its centroid
+     */
+    public enum BisectingSplit {
+        LARGEST,
+        WORST,
+    }
+    /**
+     * How the silhouette of a clustering is evaluated
+     * EXACT: every answer against every other answer, O(n^2) distances
+     * SIMPLIFIED: every answer against the centroids instead of the answers of every cluster, O(nK) distances
+     * SAMPLED: exact silhouette of a sample stratified by cluster, with a 95% confidence interval, O(sample * n) distances
+     */
+    public enum SilhouetteMode {
+        EXACT,
+        SIMPLIFIED,
+        SAMPLED,
+    }
+    /**
+     * Algorithm of a clustering, recorded on its stored model so the form is clustered again the same way
+     * LLOYD: kmeans with restarts (also the final clustering of the elbow method)
+     * BISECTING: bisecting kmeans
+     * MINI_BATCH: mini-batch kmeans
+     * KMEDOIDS: k-medoids (CLARA)
+     * STREAMING: streaming clustering (BIRCH)
+     */
+    public enum Algorithm {
+        LLOYD,
+        BISECTING,
+        MINI_BATCH,
+        KMEDOIDS,
+        STREAMING,
     }
-}
-/**
- * Kmeans class implements the K-means clustering algorithm for grouping form answers  
- */
-public class Kmeans{
     /**
      * Attributes
      * form: The form containing answers to be clustered
      * matDades: List of answers from the form
+     * data: Primitive encoding of matDades used by the algorithm
      * questions: List of questions in the form
      * nQuestions: Number of questions in the form
+     * openDistance: How OPEN_ENDED answers of the form are compared, unless the question sets its own
      * K: Number of clusters
      * maxIterations: Maximum number of iterations for the algorithm
      * precision: Convergence precision threshold
      * finalClusters: Final clusters of answers after clustering
+     * parallelism: Number of threads used for the assignment and centroid update phases, 1 runs sequentially
+     * rng: Random generator used for seeding and reseeding empty clusters
+     * pool: Fork-join pool used during a parallel run, null otherwise
+     * nInit: Number of kmeans++ restarts of every execution, the one with lowest WCSS is kept
+     * elbowTolerance: Relative WCSS gain under which the elbow search stops early, 0 never stops early
+     * ELBOW_PATIENCE: Consecutive K values under elbowTolerance needed to stop the elbow search
+     * assignmentMode: How answers are assigned to centroids
+     * validateAcceleration: True to check every accelerated assignment against the exact one
+     * metric: Result of the metric check of the current answers, null until checked
+     * accelerationRejected: Set when a validated accelerated assignment differed from the exact one, or the centroids broke the
+     * triangle inequality, the current answers then use EXACT
+     * CHUNK_SIZE: Rows per chunk, chunks never depend on the parallelism so every mode gives the same result
+     * batchSize: Answers sampled in every batch of the mini-batch mode
+     * maxBatches: Maximum number of batches of the mini-batch mode
+     * MINI_BATCH_PATIENCE: Consecutive batches without centroid movement needed to stop the mini-batch mode
+     * SEED_BATCHES: The kmeans++ seeding of the mini-batch mode runs over SEED_BATCHES batches of answers
+     * distances: Pairwise distances of the current answers, null if not computed or over the budget, released when a run ends unless keepDistances
+     * keepDistances: Keeps the distance matrix between runs, so the evaluation after a clustering does not measure it again
+     * distanceBudget: Maximum bytes of the pairwise distance matrix, over it distances are computed on the fly
+     * TILE_PAIRS: Pairs per tile when computing the distance matrix
+     * silhouetteSampleSize: Answers scored by the SAMPLED silhouette
+     * Z_95: Normal quantile of the 95% confidence interval
+     * openCacheSize: Maximum entries of the open ended distance cache of every run, 0 disables it
+     * medoidSamples: Number of samples PAM runs on in the k-medoids mode
+     * medoidSampleSize: Answers of every k-medoids sample, 0 uses 40 + 2K
+     * PAM_CHUNK: Candidate medoids per chunk of a PAM swap step
+     * streamingBudget: Maximum bytes of the CF-tree of the streaming mode
+     * streamedModel: Centroid model of the last streaming clustering, built while its answers are labelled
+     * lastAlgorithm: Algorithm of the last clustering, recorded on its model
+     * seeding: How the initial centroids of every run are picked
+     * canopyLoose, canopyTight: Proxy distance thresholds of the canopies, to join a canopy and to stop being a center
+     * canopies: Canopies of the current answers, null if not built
+     * kSearch: How the elbow method searches the K
+     * kSearchBudget: Maximum clusterings of the BUDGETED search, the final one on every answer not included
+     * kSearchSampleSize: Answers of the sample the BUDGETED search runs on, at least K_SEARCH_PER_CLUSTER per cluster of the largest K
+     * K_SEARCH_PER_CLUSTER: Minimum sampled answers per cluster of the largest K
+     * GOLDEN: Inverse of the golden ratio, where the golden-section search splits the interval around the elbow
+     * bisectingSplit: Which cluster the bisecting kmeans splits next
+     * hierarchy: Cluster hierarchy of the bisecting kmeans, kept while the answers of the form do not change
+     * BISECT_TRIALS: 2-means runs tried for every bisection, the one with lowest WCSS is kept
+     * cancellation: Token checked between iterations, the run throws a CancellationException once it is cancelled
+     * deadline: Wall-clock time (milliseconds since the epoch) when runs stop and keep their best result so far, Long.MAX_VALUE for none
+     * progress: Listener of every assignment step, null for none
+     * deadlineReached: Set when the current execution reaches the deadline, recorded on its result (KmeansRes.partial)
+     * answersFingerprint: Fingerprint of the raw answers matDades and data were cleaned and encoded from, null if unknown
      */
     private ArrayList<Answer> matDades;
+    private KmeansData data;
+    private Long answersFingerprint;
     private ArrayList<Question> questions;
     private int nQuestions,K;
-    final private int maxIterations = 500;
+    private Question.OpenDistance openDistance;
+    private int maxIterations = 500;
     final private double precision = 0.0001;
     private KmeansRes lastClustering ;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private Random rng = new Random();
+    private ForkJoinPool pool;
+    private int nInit = 1;
+    private double elbowTolerance = 0.0;
+    private static final int ELBOW_PATIENCE = 3;
+    private Assignment assignmentMode = Assignment.EXACT;
+    private boolean validateAcceleration = false;
+    private Boolean metric;
+    private volatile boolean accelerationRejected;
+    private static final int CHUNK_SIZE = 1024;
+    private int batchSize = 1024;
+    private int maxBatches = 200;
+    private static final int MINI_BATCH_PATIENCE = 10;
+    private static final int SEED_BATCHES = 3;
+    private DistanceMatrix distances;
+    private boolean keepDistances = false;
+    private long distanceBudget = 256L << 20;
+    private static final long TILE_PAIRS = 1L << 20;
+    private int silhouetteSampleSize = 1000;
+    private static final double Z_95 = 1.959964;
+    private int openCacheSize = 1 << 16;
+    private int medoidSamples = 5;
+    private int medoidSampleSize = 0;
+    private static final int PAM_CHUNK = 32;
+    private long streamingBudget = 64L << 20;
+    private ClusteringModel streamedModel;
+    private Algorithm lastAlgorithm;
+    private Seeding seeding = Seeding.KMEANS_PLUS;
+    private double canopyLoose = 0.3;
+    private double canopyTight = 0.15;
+    private Canopies canopies;
+    private KSearch kSearch = KSearch.SWEEP;
+    private int kSearchBudget = 16;
+    private int kSearchSampleSize = 5000;
+    private static final int K_SEARCH_PER_CLUSTER = 20;
+    private static final double GOLDEN = (Math.sqrt(5.0) - 1.0) / 2.0;
+    private BisectingSplit bisectingSplit = BisectingSplit.WORST;
+    private BisectingTree hierarchy;
+    private static final int BISECT_TRIALS = 3;
+    private CancellationToken cancellation;
+    private long deadline = Long.MAX_VALUE;
+    private ClusteringProgress progress;
+    private volatile boolean deadlineReached;
     
     //setter
     /**
@@ -56,6 +207,34 @@ public class Kmeans{
         updateData(f);
         this.K = 3;//default      
     }
+    /**
+     * Creates an engine over a sample of the answers of another one, with its settings, its pool, its random generator
+     * and its run controls, so a search can cluster the sample without replacing the answers of the engine it runs for
+     * @param parent Engine of the run
+     * @param sample Encoded sample of the answers of parent
+     */
+    private Kmeans(Kmeans parent, KmeansData sample){
+        this.questions = parent.questions;
+        this.nQuestions = parent.nQuestions;
+        this.openDistance = parent.openDistance;
+        this.K = parent.K;
+        this.data = sample;
+        this.maxIterations = parent.maxIterations;
+        this.parallelism = parent.parallelism;
+        this.rng = parent.rng;
+        this.pool = parent.pool;
+        this.nInit = parent.nInit;
+        this.assignmentMode = parent.assignmentMode;
+        this.validateAcceleration = parent.validateAcceleration;
+        this.metric = parent.metric;
+        this.seeding = parent.seeding;
+        this.canopyLoose = parent.canopyLoose;
+        this.canopyTight = parent.canopyTight;
+        this.cancellation = parent.cancellation;
+        this.deadline = parent.deadline;
+        this.progress = parent.progress;
+    }
+
     /**
      * Sets K value
      * @param K The K
@@ -67,403 +246,2221 @@ public class Kmeans{
     }
 
     /**
-     * Executes the clustering algorithm with elbow method
-     * @return The affinity group list of all the users that have responded with optimal K
-     * @throws Exception
+     * Sets the maximum number of iterations of every kmeans run
+     * @param maxIterations Number of iterations
+     * @throws IllegalArgumentException when maxIterations is not positive
      */
-    public ArrayList<AffinityGroup> createClustersElbowMethod(Form f,ArrayList<Answer> ans) throws Exception{
-        updateData(f);
-        setAnswers(ans);
-        this.lastClustering = assignClusters(elbowMethod());
-        return generateAffinityGroups(this.lastClustering);
+    public void setMaxIterations(int maxIterations){
+        if(maxIterations <= 0) throw new IllegalArgumentException("Max iterations must be greater than 0: "+maxIterations);
+        this.maxIterations = maxIterations;
     }
 
     /**
-     * Executes the clustering algorithm, expects the admin to set the K beforehand
-     * @return The affinity group list of all the users that have responded
-     * @throws Exception
+     * Sets the token that cancels the executions, they stop at the next iteration and throw a CancellationException
+     * @param token The token, null for none
      */
-    public ArrayList<AffinityGroup> createClustersSetK(Form f,ArrayList<Answer> ans) throws Exception{
-        updateData(f);
-        setAnswers(ans);
-        this.lastClustering = kMeansExec();
-        return generateAffinityGroups(this.lastClustering);
+    public void setCancellationToken(CancellationToken token){
+        this.cancellation = token;
     }
 
+    /**
+     * Sets the wall-clock deadline of the executions. Once it passes, every run stops after its current iteration
+     * (at least one assignment is always done) and no new K is tried, and the best clustering found so far is returned
+     * @param epochMillis Deadline in milliseconds since the epoch, Long.MAX_VALUE for none
+     */
+    public void setDeadline(long epochMillis){
+        this.deadline = epochMillis;
+    }
 
+    /**
+     * Sets the listener of the progress of the executions, it is called after every assignment step of every run
+     * @param listener The listener, null for none
+     */
+    public void setProgressListener(ClusteringProgress listener){
+        this.progress = listener;
+    }
 
     /**
-     * Sets the answers to the actual answer list of the form
-     * @param ans ArrayList of answers
+     * Tells if the last clustering stopped at the deadline, it is then the best found in time.
+     * Evaluating the clustering afterwards does not change it
+     * @return true if the deadline cut the last clustering short
      */
-    private void setAnswers(ArrayList<Answer> ans){
-        if(ans.size() == 0) throw new IllegalArgumentException("Kmeans cannot be executed with 0 answers");
-        matDades = new ArrayList<>();
-        for(Answer a : ans){
-            matDades.add(KmeansHelper.cleanData(a));
-        }
+    public boolean isClusteringPartial(){
+        return lastClustering != null && lastClustering.partial;
     }
 
     /**
-     *  Elbow method to cluster data with best K
-     * @return returns the centroids that permit the generation of the best clustering acording to elbow method
-     * @throws Exception
+     * Sets the number of threads used by the assignment and centroid update phases
+     * @param parallelism Number of threads, 1 runs sequentially
+     * @throws IllegalArgumentException when parallelism is not positive
      */
-    private ArrayList<Answer> elbowMethod() throws Exception{
-        if(matDades == null ) throw new IllegalStateException("answers not initialized properly ");
-        int maxK = (int) Math.round(Math.sqrt(matDades.size()));
-        ArrayList<ArrayList<Answer>> savedFinalCentroids = new  ArrayList<>(); //Save final clusters to save space then run kmeans with this centroids
-        double[] computedWCSS = new double[maxK];
-        for(int i = 1; i<=maxK; i++){
-            setK(i);
-            KmeansRes kr =  kMeansExec();
-            lastClustering = kr;
-            savedFinalCentroids.add(kr.centroids);
-            computedWCSS[i-1] = evaluateClusteringWCSS();
-        }
-        int bestK = KmeansHelper.detectElbow(computedWCSS);
-        return savedFinalCentroids.get(bestK - 1);  // minus 1 because K=1 is in index 0
+    public void setParallelism(int parallelism){
+        if(parallelism <= 0) throw new IllegalArgumentException("Parallelism must be greater than 0: "+parallelism);
+        this.parallelism = parallelism;
     }
-    
+
     /**
-     * Given a form updates the data necesary for executing clustering algorithm
-     * @param form The form were the clustering is ran
+     * Fixes the seed of the random generator, runs with the same seed give the same clustering
+     * whatever the parallelism
+     * @param seed The seed
      */
-    private void updateData(Form form){
-        nQuestions = form.getQuestionsCount();
-        questions = form.getQuestions();
+    public void setSeed(long seed){
+        this.rng = new Random(seed);
     }
-    //inicialitzacions
-    // random
 
     /**
-     * Basic initialitzation, return a list with K indexes from the form responders, pseudo random centroid
-     * @return arrayList of int of K centorids at random,
+     * Sets the number of kmeans++ restarts of every execution, they run concurrently over the same
+     * cleaned answers and the clustering with lowest WCSS is kept
+     * @param nInit Number of restarts
+     * @throws IllegalArgumentException when nInit is not positive
      */
-    @SuppressWarnings("unused")
-    private ArrayList<Answer> randomIni(){
-        ArrayList<Answer> l = new ArrayList<>();
-        for(int i = 0; i < K; i++){
-            Answer c = new Answer(i,i);
-            for(int j = 0; j < nQuestions; j++){
-                int randIdx = (int)(Math.random() * (matDades.size()));
-                c.addAnswer(matDades.get(randIdx).getQuestionAnswer(j));
-            }
-            l.add(c);
-        }
-        return l;
-    }   
+    public void setNInit(int nInit){
+        if(nInit <= 0) throw new IllegalArgumentException("nInit must be greater than 0: "+nInit);
+        this.nInit = nInit;
+    }
 
+    /**
+     * Gets the WCSS of every restart of the last execution (for the elbow method, of the K chosen)
+     * @return double[] WCSS of every restart, in restart order
+     * @throws IllegalStateException if no clustering has been executed
+     */
+    public double[] getRestartWCSS(){
+        if(lastClustering == null) throw new IllegalStateException("Kmeans has not been executed");
+        return lastClustering.restartWCSS.clone();
+    }
 
     /**
-     * Kmeans++ initialization, return a list with K indexes from the form responders, attempts to maximize distances between centroids
-     * @return ArrayList of k centroids generated by kmeans++
+     * Gets the iterations of every restart of the last execution (for the elbow method, of the K chosen)
+     * @return int[] iterations of every restart, in restart order
+     * @throws IllegalStateException if no clustering has been executed
      */
+    public int[] getRestartIterations(){
+        if(lastClustering == null) throw new IllegalStateException("Kmeans has not been executed");
+        return lastClustering.restartIterations.clone();
+    }
 
-    private ArrayList<Answer> kmeansPlus(){
-        //pick first point randomly
-        ArrayList<Answer> centroids = new ArrayList<>();
-        int randIdx = (int)(Math.random() * (matDades.size()));// random never is 1.0 [0.0,1.0)]
-        centroids.add(matDades.get(randIdx));
+    /**
+     * Sets how answers are assigned to their closest centroid
+     * @param mode EXACT or HAMERLY
+     */
+    public void setAssignment(Assignment mode){
+        if(mode == null) throw new IllegalArgumentException("Assignment mode is null");
+        this.assignmentMode = mode;
+    }
 
-        double[] dist = new double[matDades.size()];
+    /**
+     * Sets how the initial centroids of every run are picked
+     * @param mode KMEANS_PLUS or CANOPY
+     */
+    public void setSeeding(Seeding mode){
+        if(mode == null) throw new IllegalArgumentException("Seeding mode is null");
+        this.seeding = mode;
+    }
 
-        while(centroids.size() < K){
-            //calcular distancies
-            int i = 0;
-            for(Answer a : matDades){
-                double minDist = Double.MAX_VALUE;
+    /**
+     * Sets the proxy distance thresholds of the CANOPY seeding. Wider canopies measure more full distances
+     * and seed closer to kmeans++, narrower ones measure fewer but build more canopies
+     * @param loose Proxy distance under which an answer joins the canopy of a center
+     * @param tight Proxy distance under which an answer can no longer be a center
+     * @throws IllegalArgumentException when the thresholds are not 0 <= tight <= loose <= 1
+     */
+    public void setCanopyThresholds(double loose, double tight){
+        if(!(tight >= 0.0 && tight <= loose && loose <= 1.0)) throw new IllegalArgumentException("Canopy thresholds must satisfy 0 <= tight <= loose <= 1: "+loose+", "+tight);
+        this.canopyLoose = loose;
+        this.canopyTight = tight;
+        this.canopies = null;
+    }
 
-                for(Answer c : centroids){
-                    double d = distanceTotal(a, c);
-                    if(d < minDist) minDist = d;
-                }
-                dist[i] = minDist*minDist;
-                i++;
-            }
+    /**
+     * When set, every accelerated assignment is checked against the exact one, and the first difference
+     * switches the current answers back to exact assignment
+     * @param validate True to validate
+     */
+    public void setValidateAcceleration(boolean validate){
+        this.validateAcceleration = validate;
+    }
 
-            //seleccio aleatoria proporcional a D(x)^2
+    /**
+     * Tells if the last execution could use the accelerated assignment
+     * @return true if HAMERLY was requested, the metric check passed and no validation failed
+     */
+    public boolean isAccelerated(){
+        return assignmentMode == Assignment.HAMERLY && data != null && metric != null && metric && !accelerationRejected;
+    }
 
-            double total = 0;
-            for(double d : dist) total+=d;
+    /**
+     * Lets the elbow search stop before K = sqrt(n) once the curve is flat: when adding a cluster
+     * lowers the WCSS by less than tolerance times WCSS(K=1) for ELBOW_PATIENCE consecutive K values
+     * @param tolerance Relative WCSS gain, 0 disables the early stop
+     * @throws IllegalArgumentException when tolerance is negative
+     */
+    public void setElbowEarlyStop(double tolerance){
+        if(tolerance < 0) throw new IllegalArgumentException("Tolerance must not be negative: "+tolerance);
+        this.elbowTolerance = tolerance;
+    }
 
-            double threshold = Math.random() * total;
+    /**
+     * Sets how the elbow method searches the K of the form
+     * @param mode SWEEP or BUDGETED
+     */
+    public void setKSearch(KSearch mode){
+        if(mode == null) throw new IllegalArgumentException("K search mode is null");
+        this.kSearch = mode;
+    }
 
-            double sum = 0;
-            for(i = 0; i < matDades.size(); i++){
-                sum+= dist[i];
-                if(sum >= threshold) break;
+    /**
+     * Sets the maximum number of clusterings of the BUDGETED K search, the final clustering of the K chosen not included
+     * @param runs Number of clusterings, at least 3 (both ends of the curve and one K between them)
+     * @throws IllegalArgumentException when runs is less than 3
+     */
+    public void setKSearchBudget(int runs){
+        if(runs < 3) throw new IllegalArgumentException("K search budget must be at least 3: "+runs);
+        this.kSearchBudget = runs;
+    }
+
+    /**
+     * Sets the answers of the sample the BUDGETED K search runs on, more are taken when the largest K needs them
+     * @param sampleSize Number of answers
+     * @throws IllegalArgumentException when sampleSize is not positive
+     */
+    public void setKSearchSampleSize(int sampleSize){
+        if(sampleSize <= 0) throw new IllegalArgumentException("Sample size must be greater than 0: "+sampleSize);
+        this.kSearchSampleSize = sampleSize;
+    }
+
+    /**
+     * Sets which cluster the bisecting kmeans splits next, the hierarchy is built again on the next execution
+     * @param rule LARGEST or WORST
+     */
+    public void setBisectingSplit(BisectingSplit rule){
+        if(rule == null) throw new IllegalArgumentException("Bisecting split rule is null");
+        if(rule != bisectingSplit) hierarchy = null;
+        this.bisectingSplit = rule;
+    }
+
+    /**
+     * Sets the answers sampled in every batch of the mini-batch mode
+     * @param batchSize Number of answers per batch
+     * @throws IllegalArgumentException when batchSize is not positive
+     */
+    public void setBatchSize(int batchSize){
+        if(batchSize <= 0) throw new IllegalArgumentException("Batch size must be greater than 0: "+batchSize);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the maximum number of batches of the mini-batch mode
+     * @param maxBatches Number of batches
+     * @throws IllegalArgumentException when maxBatches is not positive
+     */
+    public void setMaxBatches(int maxBatches){
+        if(maxBatches <= 0) throw new IllegalArgumentException("Max batches must be greater than 0: "+maxBatches);
+        this.maxBatches = maxBatches;
+    }
+
+    /**
+     * Sets the number of samples PAM runs on in the k-medoids mode, the medoids that fit all the answers best are kept
+     * @param samples Number of samples
+     * @throws IllegalArgumentException when samples is not positive
+     */
+    public void setMedoidSamples(int samples){
+        if(samples <= 0) throw new IllegalArgumentException("Medoid samples must be greater than 0: "+samples);
+        this.medoidSamples = samples;
+    }
+
+    /**
+     * Sets the answers of every sample of the k-medoids mode, at least K are always taken
+     * @param sampleSize Number of answers, 0 uses 40 + 2K
+     * @throws IllegalArgumentException when sampleSize is negative
+     */
+    public void setMedoidSampleSize(int sampleSize){
+        if(sampleSize < 0) throw new IllegalArgumentException("Medoid sample size cannot be negative: "+sampleSize);
+        this.medoidSampleSize = sampleSize;
+    }
+
+    /**
+     * Sets the memory budget of the CF-tree of the streaming mode, when the summaries outgrow it they are merged coarser
+     * @param bytes Maximum bytes of the tree
+     * @throws IllegalArgumentException when bytes is not positive
+     */
+    public void setStreamingMemoryBudget(long bytes){
+        if(bytes <= 0) throw new IllegalArgumentException("Streaming memory budget must be greater than 0: "+bytes);
+        this.streamingBudget = bytes;
+    }
+
+    /**
+     * Sets the memory budget of the pairwise distance matrix shared by the silhouette and the elbow method, also the budget of the
+     * matrix of every k-medoids sample. When the matrix of the answers does not fit distances are computed on the fly
+     * @param bytes Maximum bytes of the matrix, 0 never builds it
+     * @throws IllegalArgumentException when bytes is negative
+     */
+    public void setDistanceMatrixBudget(long bytes){
+        if(bytes < 0) throw new IllegalArgumentException("Distance matrix budget must not be negative: "+bytes);
+        this.distanceBudget = bytes;
+    }
+
+    /**
+     * Keeps the pairwise distance matrix after every run, so an evaluation right after a clustering reuses it.
+     * The matrix is off-heap and can take the whole distance matrix budget, so it is released when runs end by default
+     * @param keep true to keep it until setKeepDistances(false) or until the answers change, false releases it now
+     */
+    public void setKeepDistances(boolean keep){
+        this.keepDistances = keep;
+        if(!keep) distances = null;
+    }
+
+    /**
+     * Sets the number of answers scored by the SAMPLED silhouette
+     * @param sampleSize Number of answers
+     * @throws IllegalArgumentException when sampleSize is not positive
+     */
+    public void setSilhouetteSampleSize(int sampleSize){
+        if(sampleSize <= 0) throw new IllegalArgumentException("Sample size must be greater than 0: "+sampleSize);
+        this.silhouetteSampleSize = sampleSize;
+    }
+
+    /**
+     * Sets the maximum number of LEVENSHTEIN distances between open ended strings remembered during a run,
+     * the least recently used are forgotten first
+     * @param entries Maximum entries, 0 disables the cache
+     * @throws IllegalArgumentException when entries is negative
+     */
+    public void setOpenDistanceCacheSize(int entries){
+        if(entries < 0) throw new IllegalArgumentException("Cache size cannot be negative: "+entries);
+        this.openCacheSize = entries;
+    }
+
+    /**
+     * Gets the share of open ended distances of the last run (or evaluation) found in the cache
+     * @return double hit rate between 0 and 1, 0 if nothing was looked up
+     */
+    public double getOpenDistanceCacheHitRate(){
+        return data == null ? 0.0 : data.openCache.hitRate();
+    }
+
+    /**
+     * Executes the clustering algorithm with elbow method
+     * @return The affinity group list of all the users that have responded with optimal K
+     * @throws Exception
+     */
+    public ArrayList<AffinityGroup> createClustersElbowMethod(Form f,ArrayList<Answer> ans) throws Exception{
+        updateData(f);
+        setAnswers(ans);
+        startPool();
+        try{
+            buildCanopies();
+            KmeansRes best;
+            if(kSearch == KSearch.BUDGETED) best = budgetedElbow();
+            else{
+                buildDistances();
+                best = elbowMethod();
             }
-            centroids.add(matDades.get(i));
+            this.lastClustering = assignClusters(best.centroids);
+            this.lastClustering.restartWCSS = best.restartWCSS;
+            this.lastClustering.restartIterations = best.restartIterations;
+            this.lastClustering.partial = deadlineReached;
+            this.lastAlgorithm = Algorithm.LLOYD;
+            return generateAffinityGroups(this.lastClustering); //els representants es mesuren amb la cache oberta
+        } finally {
+            stopPool();
         }
-        return centroids;
     }
 
     /**
-     * Calculates the total distance between an answer and a centroid across all questions
-     * @param a 
-     * @param c
-     * @return double average distance normalized between 0 and 1
+     * Executes the clustering algorithm, expects the admin to set the K beforehand
+     * @return The affinity group list of all the users that have responded
+     * @throws Exception
      */
-    private double distanceTotal(Answer a, Answer c){
-        double total = 0.0;
-        int questionCounted = 0;
-        double dist;
-        for(int i = 0; i < nQuestions; i++){
-            switch (a.getQuestionAnswer(i).getQuestionType()) {
-                case NUMERIC:
-                    int range = questions.get(i).getRange();
-                    if (range == 0) {
-                        throw new IllegalStateException(
-                            "Numeric question with range 0 at index " + i
-                        );
-                    }
-                    dist = KmeansHelper.distanceNumeric( a.getQuestionAnswer(i).getAnswerInteger(), c.getQuestionAnswer(i).getAnswerInteger(), range);
-                    break;
-                case MULTIPLE_CHOICE:
-                    if(questions.get(i).isOrder()) dist = KmeansHelper.distanceMultipleOrder( a.getQuestionAnswer(i).getAnswerMultiple(), 
-                                                                                              c.getQuestionAnswer(i).getAnswerMultiple(),
-                                                                                              questions.get(i).getChoices());
-                    else dist = KmeansHelper.distanceMultipleUnOrder( a.getQuestionAnswer(i).getAnswerMultiple(), c.getQuestionAnswer(i).getAnswerMultiple());
-                    break;
-                case OPEN_ENDED:
-                    dist = KmeansHelper.distanceOpen(a.getQuestionAnswer(i).getAnswerString(), c.getQuestionAnswer(i).getAnswerString());
-                    break;
-                default:
-                    dist = -1.0;
-                    break;
-            }
-            if(dist >= 0.0) {
-                total += dist;
-                questionCounted++;
-            }
-        }
-        if (questionCounted == 0) return 0.5; // If no questions were counted, return a neutral distance
-        return total/questionCounted;
-    }
-
-    /**
-     * Generates a new centroid by calculating the mean of all answers in a cluster
-     * @param clusterAnswers
-     * @param centroid
-     * @return Answer representing the new centroid
-     */
-    private Answer generateCentroidMean(ArrayList<Answer> clusterAnswers,Answer centroid){
-        if(clusterAnswers.isEmpty()) return centroid;
-        int nAnswers = clusterAnswers.size();
-        ArrayList<QuestionAnswer> centroidAnswers = new ArrayList<>(nAnswers);
-        int qIdx = 0;
-        QuestionAnswer qa;
-        for(Question q : questions){
-            switch (q.getQuestionType()) {
-                case NUMERIC: 
-                    qa = KmeansHelper.numericMean(clusterAnswers, qIdx);
-                    break;
-                case MULTIPLE_CHOICE:
-                    if(questions.get(qIdx).isOrder()){
-                        qa = KmeansHelper.MCquantitativeMean(clusterAnswers,qIdx,q.getChoices());
-                    }
-                    else{
-                        qa = KmeansHelper.MCQualitativeMMean(clusterAnswers, qIdx, q.getChoices());
-                    }
-                    break;
-                case OPEN_ENDED:
-                    qa = KmeansHelper.openEndedMean(clusterAnswers, qIdx);
-                    break;
-                default:
-                    qa = new QuestionAnswer(q.getQuestionType(),null);
-                    break;
-            }
-            qIdx++;
-            centroidAnswers.add(qa);
+    public ArrayList<AffinityGroup> createClustersSetK(Form f,ArrayList<Answer> ans) throws Exception{
+        updateData(f);
+        setAnswers(ans);
+        startPool();
+        try{
+            buildCanopies();
+            this.lastClustering = bestOfRestarts(K, rng, () -> false);
+            this.lastClustering.partial = deadlineReached;
+            this.lastAlgorithm = Algorithm.LLOYD;
+            return generateAffinityGroups(this.lastClustering); //els representants es mesuren amb la cache oberta
+        } finally {
+            stopPool();
         }
-        return new Answer(0,0,centroidAnswers);
     }
+
     /**
-     * Gets the cleaned answers from last execution,
-     * @return
+     * Executes the mini-batch clustering algorithm, expects the admin to set the K beforehand.
+     * Centroids learn from random batches of answers instead of sweeping every answer on every iteration,
+     * only the final assignment goes through all of them. Meant for forms with a very large number of answers,
+     * the clustering is usually slightly worse than createClustersSetK
+     * @return The affinity group list of all the users that have responded
+     * @throws Exception
      */
-    public ArrayList<Answer> getCleanAnswers(ArrayList<Answer> answers){
-        if(matDades == null){
-            setAnswers(answers);
+    public ArrayList<AffinityGroup> createClustersMiniBatch(Form f,ArrayList<Answer> ans) throws Exception{
+        updateData(f);
+        setAnswers(ans);
+        startPool();
+        try{
+            this.lastClustering = miniBatchExec(K, rng);
+            this.lastClustering.restartWCSS = new double[]{lastClustering.wcss};
+            this.lastClustering.restartIterations = new int[]{lastClustering.iterations};
+            this.lastClustering.partial = deadlineReached;
+            this.lastAlgorithm = Algorithm.MINI_BATCH;
+            return generateAffinityGroups(this.lastClustering); //els representants es mesuren amb la cache oberta
+        } finally {
+            stopPool();
         }
-        return matDades;
     }
+
     /**
-     * Returns the answer that is the most far from the centroid, so the point that is worst asigned
-     * @param ans
-     * @param centroid
-     * @return Answer The answer with most distance to it's centroid
+     * Executes the k-medoids clustering algorithm (CLARA), expects the admin to set the K beforehand.
+     * Every cluster is built around a real answer, its medoid, which becomes the representative of its affinity group,
+     * so open ended answers are never averaged into a centroid. PAM runs on random samples of the answers only,
+     * so the cost grows linearly with the number of answers
+     * @return The affinity group list of all the users that have responded
+     * @throws Exception
      */
-    @SuppressWarnings("unused")
-    private Answer worstPoint(ArrayList<Answer> ans, Answer centroid){
-        Answer result = null;
-        double maxDistance = 0.0;
-        for(Answer a : ans){
-            double dist = distanceTotal(a, centroid);
-            if(dist > maxDistance){
-                maxDistance = dist;
-                result = a;
-            }
+    public ArrayList<AffinityGroup> createClustersKMedoids(Form f,ArrayList<Answer> ans) throws Exception{
+        updateData(f);
+        setAnswers(ans);
+        startPool();
+        try{
+            this.lastClustering = claraExec(K, rng);
+            this.lastClustering.restartWCSS = new double[]{lastClustering.wcss};
+            this.lastClustering.restartIterations = new int[]{lastClustering.iterations};
+            this.lastClustering.partial = deadlineReached;
+            this.lastAlgorithm = Algorithm.KMEDOIDS;
+            return generateAffinityGroups(this.lastClustering);
+        } finally {
+            stopPool();
         }
-        return result;
     }
 
+
+
     /**
-     * Returns the answer that is the most close from the centroid
-     * @param ans List of answers
-     * @param centroid Centroid
-     * @return Answer The answer with minimum distance to it's centroid
+     * Executes the bisecting kmeans algorithm, expects the admin to set the K beforehand.
+     * The cluster hierarchy is built once for the answers of the form and kept: every split divides the worst (or largest)
+     * cluster in two with 2-means, and the halves of every new cluster are computed concurrently on the pool.
+     * While the answers do not change, any K is read from the hierarchy, growing it only when K has more clusters than
+     * it has leaves, so trying several K never clusters again. Fewer than K groups are returned if no cluster can be split.
+     * A hierarchy grown past the time limit may hold bisections that did not converge, so it is thrown away after that execution
+     * @return The affinity group list of all the users that have responded
+     * @throws Exception
      */
-    private Answer bestPoint(ArrayList<Answer> ans, Answer centroid){
-        Answer result = null;
-        double minDistance = Double.MAX_VALUE;
-        for(Answer a : ans){
-            double dist = distanceTotal(a, centroid);
-            if(dist < minDistance){
-                minDistance = dist;
-                result = a;
-            }
+    public ArrayList<AffinityGroup> createClustersBisecting(Form f,ArrayList<Answer> ans) throws Exception{
+        updateData(f);
+        long fingerprint = BisectingTree.fingerprint(ans);
+        if(hierarchy == null || !hierarchy.matches(nQuestions, KmeansData.openModes(questions, openDistance), fingerprint)){
+            setAnswers(ans);
+            ClusterStats root = new ClusterStats(data);
+            for(int row = 0; row < data.nRows; row++) root.add(row);
+            hierarchy = new BisectingTree(data, matDades, nQuestions, fingerprint, rng.nextLong(), root);
+        }
+        else if(data != hierarchy.data){
+            //les respostes netes i codificades de la jerarquia es reutilitzen
+            matDades = hierarchy.answers;
+            data = hierarchy.data;
+            answersFingerprint = hierarchy.fingerprint;
+            streamedModel = null;
+            distances = null;
+            canopies = null;
+            metric = null;
+            accelerationRejected = false;
+        }
+        startPool();
+        try{
+            growHierarchy(K);
+            KmeansRes kr = hierarchy.clustering(Math.min(K, hierarchy.splits() + 1));
+            kr.wcss = wcss(kr);
+            kr.restartWCSS = new double[]{kr.wcss};
+            kr.restartIterations = new int[]{hierarchy.splits()};
+            this.lastClustering = kr;
+            this.lastClustering.partial = deadlineReached;
+            this.lastAlgorithm = Algorithm.BISECTING;
+            //una biseccio tallada pel limit de temps no ha convergit, la jerarquia no es guarda per a les seguents execucions
+            if(deadlineReached) hierarchy = null;
+            return generateAffinityGroups(this.lastClustering);
+        } finally {
+            stopPool();
         }
-        return result;
     }
+
     /**
-     * Executs the K-means clustering algorithm on the form's answers
-     * @return KmeansRes of the execution
+     * Executes the streaming clustering algorithm (BIRCH), expects the admin to set the K beforehand.
+     * Answers are read one at a time into a CF-tree of cluster summaries that stays under the streaming memory budget,
+     * and the leaf summaries are clustered into K centroids. A second pass over the answers labels every answer with its
+     * closest centroid, picks the representatives and builds the centroid model; no pass keeps the answers in memory.
+     * At the deadline the summaries stop reading answers and their clustering stops, but every answer is still labelled.
+     * The last clustering can not be evaluated with the silhouette, the stored groups can
+     * @param f The form of the answers
+     * @param answers Answers of the form, iterated twice (three times if a question uses TFIDF_COSINE, to count document frequencies)
+     * @return The affinity group list of all the users that have responded
+     * @throws Exception
      */
-    private KmeansRes kMeansExec() throws Exception{
-        ArrayList<Answer> centroids = kmeansPlus();
-        ArrayList<ArrayList<Answer>> clusters = new ArrayList<>(K);
-        boolean changed = true;
-        int currentIteration = 0;
-        while (changed && currentIteration < maxIterations){
-            //buida clusters
-            clusters = new ArrayList<>(K);
-            for (int i = 0; i < K; i++) {
-                clusters.add(new ArrayList<>());
-            }
-            //asigna cada answer al cluster al centroide mes proper
-            for(Answer a : matDades){     
-                int k = 0;
-                double minDist = Double.POSITIVE_INFINITY;
-                int closestCluster = 0;
-                for(Answer c : centroids){
-                    double d = distanceTotal(a, c);
-                    if(d < minDist){
-                        minDist = d;
-                        closestCluster = k;
-                    }
-                    k++;
-                }
-                clusters.get(closestCluster).add(a);
+    public ArrayList<AffinityGroup> createClustersStreaming(Form f, Iterable<Answer> answers) throws Exception{
+        updateData(f);
+        matDades = null;
+        data = null;
+        answersFingerprint = null;
+        distances = null;
+        canopies = null;
+        lastClustering = null;
+        streamedModel = null;
+        deadlineReached = false;
+        KmeansData schema = new KmeansData(questions, new ArrayList<>(), KmeansData.openModes(questions, openDistance));
+        KmeansData point = schema.streamingLike(1); //les respostes senceres no entren al diccionari, nomes les paraules
+        countDocuments(point, answers);
+        point.openCache.open(openCacheSize);
+        try{
+            CFTree tree = new CFTree(point, streamingBudget);
+            boolean read = false;
+            for(Answer a : answers){
+                if(read && stopRequested()) break; //al limit de temps els resums es queden amb les respostes llegides
+                point.encodeRow(0, questions, KmeansHelper.cleanData(a));
+                tree.insert();
+                read = true;
             }
-            //crear seguents centroides
-            changed = false;
-            ArrayList<Answer> newCentroids = new ArrayList<>(K);
-            for(int k = 0; k<K; k++) {
-                Answer newCentroid;
+            ArrayList<ClusterStats> leaves = tree.leaves();
+            if(leaves.isEmpty()) throw new IllegalArgumentException("Kmeans cannot be executed with 0 answers");
+            KmeansData centroids = clusterSummaries(point, leaves, rng);
+            return labelStream(point, centroids, answers);
+        } finally {
+            point.openCache.close();
+        }
+    }
 
-                if(clusters.get(k).isEmpty()){
-                    int randIndex = (int) (Math.random() * matDades.size());
-                    newCentroid = matDades.get(randIndex);
-                }
-                else{
-                    newCentroid = generateCentroidMean(clusters.get(k),centroids.get(k));
-                }
-                if(distanceTotal(newCentroid, centroids.get(k)) > precision) changed = true;
-                
-                newCentroids.add(newCentroid);
-              
+    /**
+     * Counts the document frequencies of the TFIDF_COSINE questions over a stream of answers, only their vocabulary is kept.
+     * Does nothing (and does not read the answers) if no question uses TFIDF_COSINE
+     * @param point Encoding whose schema gets the frequencies
+     * @param answers Answers of the form
+     */
+    private void countDocuments(KmeansData point, Iterable<Answer> answers){
+        ArrayList<Integer> tfidf = new ArrayList<>();
+        for(int q = 0; q < nQuestions; q++) if(point.isTfIdf(q)) tfidf.add(q);
+        if(tfidf.isEmpty()) return;
+        ArrayList<HashMap<String,Integer>> df = new ArrayList<>();
+        int[] documents = new int[nQuestions];
+        for(int i = 0; i < tfidf.size(); i++) df.add(new HashMap<>());
+        for(Answer a : answers){
+            Answer clean = KmeansHelper.cleanData(a);
+            for(int i = 0; i < tfidf.size(); i++){
+                int q = tfidf.get(i);
+                if(q >= clean.getAnswer().size()) continue;
+                QuestionAnswer qa = clean.getQuestionAnswer(q);
+                if(qa == null || qa.getQuestionType() != Question.QuestionType.OPEN_ENDED || qa.isUnAnswered() || qa.getAnswerString().isEmpty()) continue;
+                documents[q]++;
+                HashSet<String> words = new HashSet<>();
+                for(String w : qa.getAnswerString().split(" ")) if(!w.isEmpty()) words.add(w);
+                for(String w : words) df.get(i).merge(w, 1, Integer::sum);
             }
-            centroids = newCentroids;
-            currentIteration++;
         }
-        return new KmeansRes(clusters, centroids);
+        for(int i = 0; i < tfidf.size(); i++) point.setDocumentFrequencies(tfidf.get(i), df.get(i), documents[tfidf.get(i)]);
     }
+
     /**
-     * Generates the affinity groups for the answers starting from Centroids, with one iteration.
-     * @param centroids The centroids to initialize clustering
-     * @return Returns KmeansRes of the execution
-     * @throws Exception
+     * Clusters the leaf summaries of a CF-tree into K centroids: kmeans++ seeding weighted by the answers of every summary,
+     * then kmeans iterations where every centroid is rebuilt from the merged statistics of its summaries
+     * @param point Encoding the summaries refer to
+     * @param leaves Leaf summaries
+     * @param random random generator of the run
+     * @return KmeansData with min(K, summaries) centroids
      */
-    private  KmeansRes assignClusters(ArrayList<Answer> centroids) throws Exception{
-        setK(centroids.size());
-        ArrayList<ArrayList<Answer>> clusters = new ArrayList<>(K);
-        int k;
-        for (k = 0; k < K; k++) {
-            clusters.add(new ArrayList<Answer>());
+    private KmeansData clusterSummaries(KmeansData point, ArrayList<ClusterStats> leaves, Random random){
+        int n = leaves.size(), K = Math.min(this.K, n);
+        KmeansData summaries = point.emptyLike(n);
+        for(int i = 0; i < n; i++) leaves.get(i).writeCentroid(summaries, i);
+        //kmeans++ amb cada resum pesat pel nombre de respostes que conte
+        KmeansData centroids = point.emptyLike(K);
+        double[] minDist = new double[n];
+        Arrays.fill(minDist, Double.MAX_VALUE);
+        int last = -1;
+        for(int chosen = 0; chosen < K; chosen++){
+            double total = 0.0;
+            double[] weight = new double[n];
+            for(int i = 0; i < n; i++){
+                if(last >= 0) minDist[i] = Math.min(minDist[i], summaries.distance(i, centroids, last));
+                weight[i] = leaves.get(i).size() * (last >= 0 ? minDist[i] * minDist[i] : 1.0);
+                total += weight[i];
+            }
+            double threshold = random.nextDouble() * total, sum = 0.0;
+            int i;
+            for(i = 0; i < n - 1; i++){
+                sum += weight[i];
+                if(sum >= threshold) break;
+            }
+            centroids.copyRow(chosen, summaries, i);
+            last = chosen;
         }
-        //asigna cada answer al cluster del centroide mes proper
-        for(Answer a : matDades){     
-            k = 0;
-            double minDist = Double.POSITIVE_INFINITY;
-            int closestCluster = 0;
-
-           
-            for(Answer c : centroids){
-                double d = distanceTotal(a, c);
-                if(d < minDist){
-                    minDist = d;
-                    closestCluster = k;
+        int[] assignment = new int[n];
+        Arrays.fill(assignment, -1);
+        double[] sum = new double[K], count = new double[K];
+        for(int iteration = 0; iteration < maxIterations && (iteration == 0 || !stopRequested()); iteration++){
+            int changes = 0;
+            for(int i = 0; i < n; i++){
+                int k = closestCentroid(summaries, i, centroids, sum, count);
+                if(k != assignment[i]){
+                    assignment[i] = k;
+                    changes++;
                 }
-                k++;
             }
-            clusters.get(closestCluster).add(a);
+            if(progress != null) progress.onProgress(K, iteration + 1, changes);
+            if(changes == 0) break;
+            ClusterStats[] merged = new ClusterStats[K];
+            for(int k = 0; k < K; k++) merged[k] = new ClusterStats(point);
+            for(int i = 0; i < n; i++) merged[assignment[i]].merge(leaves.get(i));
+            for(int k = 0; k < K; k++){
+                if(merged[k].size() > 0) merged[k].writeCentroid(centroids, k); //un centroide sense resums es queda on era
+            }
         }
-        return new KmeansRes(clusters, centroids);
+        return centroids;
     }
+
     /**
-     * From a KmeansRes create the affinity groups to store, sets the representative as the point closest to centroid,
-     * For each answer stores its responderUUID
-     * @param kr
-     * @return List of affinityGroup
+     * Labels a stream of answers with their closest centroid and builds the affinity groups and the centroid model.
+     * The representative of every group is its answer closest to the centroid
+     * @param point Encoding the answers are streamed through
+     * @param centroids Final centroids
+     * @param answers Answers of the form
+     * @return List of affinityGroup, empty clusters are skipped
      */
-    private ArrayList<AffinityGroup> generateAffinityGroups(KmeansRes kr){
-        ArrayList<AffinityGroup> ret = new ArrayList<>();
-        for(int k = 0; k < kr.centroids.size(); k++){
-            Answer rep = bestPoint(kr.clusters.get(k), kr.centroids.get(k));
-            if(rep == null) continue; //skip empty clusters
-            AffinityGroup af = new AffinityGroup(rep.getResponderUUID(), null);
-            for(Answer a : kr.clusters.get(k)){
-                af.addMember(a.getResponderUUID());
+    private ArrayList<AffinityGroup> labelStream(KmeansData point, KmeansData centroids, Iterable<Answer> answers){
+        int K = centroids.nRows;
+        ArrayList<ArrayList<Integer>> members = new ArrayList<>(K);
+        ClusterStats[] stats = new ClusterStats[K];
+        int[] rep = new int[K];
+        double[] repDist = new double[K];
+        Arrays.fill(repDist, Double.MAX_VALUE);
+        for(int k = 0; k < K; k++){
+            members.add(new ArrayList<>());
+            stats[k] = new ClusterStats(point);
+        }
+        double[] sum = new double[K], count = new double[K];
+        for(Answer a : answers){
+            stopRequested(); //nomes per la cancel·lacio, al limit de temps totes les respostes s'han d'etiquetar igualment
+            point.encodeRow(0, questions, KmeansHelper.cleanData(a));
+            int k = closestCentroid(point, 0, centroids, sum, count);
+            double d = point.distance(0, centroids, k);
+            members.get(k).add(point.responderUUID[0]);
+            stats[k].add(0);
+            if(d < repDist[k]){
+                repDist[k] = d;
+                rep[k] = point.responderUUID[0];
             }
-            ret.add(af);
         }
+        ArrayList<AffinityGroup> ret = new ArrayList<>();
+        ArrayList<ClusteringModel.Cluster> clusters = new ArrayList<>();
+        for(int k = 0; k < K; k++){
+            if(members.get(k).isEmpty()) continue; //skip empty clusters
+            ArrayList<Integer> group = new ArrayList<>(members.get(k).size());
+            group.add(rep[k]);
+            for(int member : members.get(k)) if(member != rep[k]) group.add(member);
+            ret.add(new AffinityGroup(rep[k], group));
+            clusters.add(stats[k].toModel());
+        }
+        streamedModel = new ClusteringModel(K, Algorithm.STREAMING, batchSize, nQuestions, clusters, point, deadlineReached);
         return ret;
     }
 
     /**
-     * The Silhouette Score measures how well each data point fits within its assigned cluster compared to other clusters.
-     * Greater is better
-     * @return double in the range [-1.0,1.0]
+     * Sets the answers to the actual answer list of the form and encodes them once for the whole run
+     * @param ans ArrayList of answers
      */
-    public double evaluateClusteringSilhouete(){
-        double totalEval = 0.0;
-        //calculate evaluation metric
-        for(ArrayList<Answer> clusterAnswers : lastClustering.clusters){
-            if (clusterAnswers.size() <= 1) continue; //coeficient is 0 if one or zero points in cluster
-            // optimitzar (precalcular distancies)
-            for(Answer a : clusterAnswers){
-                double ai = 0.0; //mean intra-cluster distance
-                for(Answer b : clusterAnswers){
-                    if(a != b) ai += distanceTotal(a,b);
+    private void setAnswers(ArrayList<Answer> ans){
+        if(ans.size() == 0) throw new IllegalArgumentException("Kmeans cannot be executed with 0 answers");
+        matDades = new ArrayList<>();
+        for(Answer a : ans){
+            matDades.add(KmeansHelper.cleanData(a));
+        }
+        data = new KmeansData(questions, matDades, KmeansData.openModes(questions, openDistance));
+        answersFingerprint = BisectingTree.fingerprint(ans);
+        streamedModel = null;
+        distances = null;
+        canopies = null;
+        metric = null;
+        accelerationRejected = false;
+    }
+
+    /**
+     * Computes the pairwise distance matrix of the current answers once, in tiles on the pool when running in parallel.
+     * Does nothing if it is already computed or does not fit in the budget, and is left out if the deadline passes meanwhile
+     * @throws Exception if a tile fails or the execution is cancelled
+     */
+    private void buildDistances() throws Exception{
+        if(distances != null) return;
+        DistanceMatrix m = DistanceMatrix.create(data.nRows, distanceBudget);
+        if(m == null) return;
+        //files de cada tessel·la, amb aproximadament TILE_PAIRS parelles cadascuna
+        ArrayList<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        long pairs = 0;
+        for(int row = 0; row < data.nRows; row++){
+            pairs += data.nRows - 1 - row;
+            if(pairs >= TILE_PAIRS){
+                bounds.add(row + 1);
+                pairs = 0;
+            }
+        }
+        if(bounds.get(bounds.size() - 1) != data.nRows) bounds.add(data.nRows);
+        runChunks(bounds.size() - 1, tile -> {
+            if(!stopRequested()) m.fillRows(data, bounds.get(tile), bounds.get(tile + 1));
+        });
+        if(deadlineReached) return; //la matriu ha quedat incompleta, les distancies es mesuren directament
+        distances = m;
+    }
+
+    /**
+     * Distance between two encoded answers, from the distance matrix if it is computed
+     * @param a row of the first answer
+     * @param b row of the second answer
+     * @return double distance normalized between 0 and 1
+     */
+    private double pairDistance(int a, int b){
+        return distances != null ? distances.get(a, b) : data.distance(a, data, b);
+    }
+
+    /**
+     * Builds the canopies of the current answers once, when the CANOPY seeding is used.
+     * Does nothing if they are already built
+     */
+    private void buildCanopies(){
+        if(seeding != Seeding.CANOPY || canopies != null) return;
+        canopies = Canopies.build(data, canopyLoose, canopyTight, rng);
+    }
+
+    /**
+     * Decides if a run can use the accelerated assignment, the metric check is done once per answers
+     * @return true if HAMERLY is requested and the distance of the answers looks like a metric
+     */
+    private synchronized boolean useAcceleration(){
+        if(assignmentMode != Assignment.HAMERLY || accelerationRejected) return false;
+        if(metric == null) metric = HamerlyBounds.looksMetric(data);
+        return metric;
+    }
+
+    /**
+     *  Elbow method to cluster data with best K
+     *  Candidate K values run concurrently on the pool, at most parallelism at a time and in increasing order,
+     *  each one with its own random stream so the result does not depend on the order they finish.
+     *  The WCSS curve is filled as results arrive and the search stops early once the elbow is established (see setElbowEarlyStop)
+     * @return returns the execution whose centroids permit the generation of the best clustering acording to elbow method
+     * @throws Exception
+     */
+    private KmeansRes elbowMethod() throws Exception{
+        if(data == null ) throw new IllegalStateException("answers not initialized properly ");
+        int maxK = (int) Math.round(Math.sqrt(data.nRows));
+        KmeansRes[] savedFinalCentroids = new KmeansRes[maxK]; //Save final clusters to save space then run kmeans with this centroids
+        double[] computedWCSS = new double[maxK];
+        long baseSeed = rng.nextLong();
+        int computed = 0; //K values 1..computed are all available
+        boolean established = false;
+        if(pool == null){
+            for(int i = 1; i<=maxK && !established && (i == 1 || !stopRequested()); i++){
+                KmeansRes kr = bestOfRestarts(i, elbowRandom(baseSeed, i), () -> false);
+                kr.assignment = null; //only the centroids are kept, the chosen K is assigned again at the end
+                savedFinalCentroids[i-1] = kr;
+                computedWCSS[i-1] = kr.wcss;
+                computed = i;
+                established = KmeansHelper.elbowEstablished(computedWCSS, computed, elbowTolerance, ELBOW_PATIENCE);
+            }
+        }
+        else{
+            ExecutorCompletionService<KmeansRes> done = new ExecutorCompletionService<>(pool);
+            AtomicBoolean abandon = new AtomicBoolean(false); //runs still going when the elbow is established are not needed
+            int next = 1, running = 0;
+            for(; next <= maxK && running < parallelism; next++, running++) submitElbowRun(done, next, baseSeed, abandon);
+            while(running > 0){
+                KmeansRes kr;
+                try{
+                    kr = done.take().get();
+                } catch (ExecutionException e){
+                    if(e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                    throw e;
+                }
+                running--;
+                if(abandon.get()) continue;
+                int k = kr.centroids.nRows;
+                kr.assignment = null; //only the centroids are kept, the chosen K is assigned again at the end
+                savedFinalCentroids[k-1] = kr;
+                computedWCSS[k-1] = kr.wcss;
+                while(!established && computed < maxK && savedFinalCentroids[computed] != null){
+                    computed++;
+                    established = KmeansHelper.elbowEstablished(computedWCSS, computed, elbowTolerance, ELBOW_PATIENCE);
+                }
+                if(established) abandon.set(true);
+                else if(next <= maxK && !stopRequested()){
+                    submitElbowRun(done, next++, baseSeed, abandon);
+                    running++;
+                }
+            }
+        }
+        int bestK = KmeansHelper.detectElbow(Arrays.copyOf(computedWCSS, computed));
+        return savedFinalCentroids[bestK - 1];  // minus 1 because K=1 is in index 0
+    }
+
+    /**
+     * Budgeted elbow method, for forms where sweeping every K up to sqrt(n) is too slow.
+     * The WCSS curve is measured on a sample of the answers: first on a geometric grid of K values from 1 to sqrt(n),
+     * then with a golden-section search around the elbow of the grid, each K run at most once and kSearchBudget runs in total.
+     * The elbow of every K measured is clustered again on all the answers.
+     * Every K has its own random stream, as in the sweep, so the result does not depend on the parallelism
+     * @return the execution on all the answers with the K chosen
+     * @throws Exception if a run fails
+     */
+    private KmeansRes budgetedElbow() throws Exception{
+        if(data == null ) throw new IllegalStateException("answers not initialized properly ");
+        int maxK = (int) Math.round(Math.sqrt(data.nRows));
+        long baseSeed = rng.nextLong();
+        KmeansData sample = sample(Math.max(kSearchSampleSize, K_SEARCH_PER_CLUSTER * maxK), new Random(baseSeed));
+        HashMap<Integer,KmeansRes> runs = new HashMap<>();
+        int bestK;
+        //les execucions de la cerca es fan sobre la mostra amb un motor propi, data sempre son tots els answers
+        Kmeans searcher = sample == data ? this : new Kmeans(this, sample);
+        if(searcher == this) buildDistances();
+        else searcher.buildCanopies();
+        try{
+            //graella geometrica, amb com a molt la meitat del pressupost
+            double ratio = Math.max(2.0, Math.pow(maxK, 1.0 / Math.max(1, kSearchBudget / 2 - 1)));
+            ArrayList<Integer> grid = new ArrayList<>();
+            for(double k = 1.0; k < maxK; k *= ratio){
+                int rounded = (int) Math.round(k);
+                if(grid.isEmpty() || rounded > grid.get(grid.size() - 1)) grid.add(rounded);
+            }
+            if(grid.isEmpty() || grid.get(grid.size() - 1) != maxK) grid.add(maxK);
+            searcher.runKs(grid, runs, baseSeed);
+            int[] ks = new int[grid.size()];
+            double[] curve = new double[grid.size()];
+            for(int i = 0; i < ks.length; i++){
+                ks[i] = grid.get(i);
+                curve[i] = runs.get(ks[i]).wcss;
+            }
+            //seccio aurea entre els veins del colze de la graella, sobre la distancia a la corda entre K=1 i K=maxK
+            int at = Arrays.binarySearch(ks, KmeansHelper.detectElbow(ks, curve));
+            int lo = ks[Math.max(0, at - 1)], hi = ks[Math.min(ks.length - 1, at + 1)];
+            double w1 = curve[0], wMax = curve[curve.length - 1];
+            while(hi - lo > 2 && runs.size() < kSearchBudget && !stopRequested()){
+                int c = hi - (int) Math.round(GOLDEN * (hi - lo));
+                int d = lo + (int) Math.round(GOLDEN * (hi - lo));
+                if(d <= c) d = c + 1;
+                ArrayList<Integer> probe = new ArrayList<>();
+                if(!runs.containsKey(c)) probe.add(c);
+                if(!runs.containsKey(d) && runs.size() + probe.size() < kSearchBudget) probe.add(d);
+                searcher.runKs(probe, runs, baseSeed);
+                if(!runs.containsKey(c) || !runs.containsKey(d)) break;
+                double fc = KmeansHelper.chordDistance(1, w1, maxK, wMax, c, runs.get(c).wcss);
+                double fd = KmeansHelper.chordDistance(1, w1, maxK, wMax, d, runs.get(d).wcss);
+                if(fc >= fd) hi = d;
+                else lo = c;
+            }
+            ArrayList<Integer> measured = new ArrayList<>(runs.keySet());
+            measured.sort(null);
+            ks = new int[measured.size()];
+            curve = new double[measured.size()];
+            for(int i = 0; i < ks.length; i++){
+                ks[i] = measured.get(i);
+                curve[i] = runs.get(ks[i]).wcss;
+            }
+            bestK = KmeansHelper.detectElbow(ks, curve);
+        } finally {
+            if(searcher.deadlineReached) deadlineReached = true;
+        }
+        if(searcher == this) return runs.get(bestK);
+        return bestOfRestarts(bestK, elbowRandom(baseSeed, bestK), () -> false);
+    }
+
+    /**
+     * Runs the kmeans of some candidate K values of the budgeted elbow method on the current data,
+     * concurrently on the pool if there is one
+     * @param ks K values to run
+     * @param runs Execution of every K, the new ones are added without their assignment
+     * @param baseSeed seed of the elbow search
+     * @throws Exception if a run fails
+     */
+    private void runKs(List<Integer> ks, HashMap<Integer,KmeansRes> runs, long baseSeed) throws Exception{
+        if(pool == null || ks.size() == 1){
+            for(int k : ks) runs.put(k, bestOfRestarts(k, elbowRandom(baseSeed, k), () -> false));
+        }
+        else{
+            List<Callable<KmeansRes>> tasks = new ArrayList<>(ks.size());
+            for(int k : ks) tasks.add(() -> bestOfRestarts(k, elbowRandom(baseSeed, k), () -> false));
+            List<Future<KmeansRes>> results = pool.invokeAll(tasks);
+            for(int i = 0; i < ks.size(); i++){
+                try{
+                    runs.put(ks.get(i), results.get(i).get());
+                } catch (ExecutionException e){
+                    if(e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        }
+        for(int k : ks) runs.get(k).assignment = null; //only the centroids are kept, the chosen K is assigned again at the end
+    }
+
+    /**
+     * Submits the kmeans run of one candidate K of the elbow search
+     * @param done completion service collecting the runs
+     * @param k the candidate K
+     * @param baseSeed seed of the elbow search
+     * @param abandon set when the run is no longer needed
+     */
+    private void submitElbowRun(ExecutorCompletionService<KmeansRes> done, int k, long baseSeed, AtomicBoolean abandon){
+        done.submit(() -> bestOfRestarts(k, elbowRandom(baseSeed, k), abandon::get));
+    }
+
+    /**
+     * Random stream of one candidate K of the elbow search, independent from the other candidates
+     * @param baseSeed seed of the elbow search
+     * @param k the candidate K
+     * @return Random for that K
+     */
+    private static Random elbowRandom(long baseSeed, int k){
+        return new Random(baseSeed ^ (k * 0x9E3779B97F4A7C15L));
+    }
+    
+    /**
+     * Given a form updates the data necesary for executing clustering algorithm
+     * @param form The form were the clustering is ran
+     */
+    private void updateData(Form form){
+        nQuestions = form.getQuestionsCount();
+        questions = form.getQuestions();
+        openDistance = form.getOpenDistance();
+    }
+    //inicialitzacions
+    // random
+
+    /**
+     * Basic initialitzation, every centroid takes each question from a pseudo random responder
+     * @return KmeansData of K centroids at random
+     */
+    @SuppressWarnings("unused")
+    private KmeansData randomIni(){
+        KmeansData centroids = data.emptyLike(K);
+        for(int i = 0; i < K; i++){
+            for(int j = 0; j < nQuestions; j++){
+                int randIdx = (int)(rng.nextDouble() * (data.nRows));
+                centroids.copyCell(i, j, data, randIdx);
+            }
+        }
+        return centroids;
+    }   
+
+
+    /**
+     * Kmeans++ initialization, picks K responders as centroids, attempts to maximize distances between centroids
+     * The distance to the closest centroid is kept between rounds, so each round only measures the last centroid added,
+     * read from the distance matrix when the points are the current answers and it is computed
+     * @param points encoded answers the centroids are picked from
+     * @param K number of centroids
+     * @param random random generator of the run
+     * @return KmeansData of k centroids generated by kmeans++
+     * @throws Exception if a chunk fails
+     */
+
+    private KmeansData kmeansPlus(KmeansData points, int K, Random random) throws Exception{
+        if(seeding == Seeding.CANOPY){
+            Canopies c = points == data && canopies != null ? canopies : Canopies.build(points, canopyLoose, canopyTight, random);
+            return canopyPlus(points, c, K, random);
+        }
+        KmeansData centroids = points.emptyLike(K);
+        //pick first point randomly
+        int randIdx = (int)(random.nextDouble() * (points.nRows));// random never is 1.0 [0.0,1.0)]
+        centroids.copyRow(0, points, randIdx);
+        int[] chosenRows = new int[K];
+        chosenRows[0] = randIdx;
+        DistanceMatrix matrix = points == data ? distances : null;
+
+        double[] minDist = new double[points.nRows];
+        Arrays.fill(minDist, Double.MAX_VALUE);
+        double[] dist = new double[points.nRows];
+
+        for(int chosen = 1; chosen < K; chosen++){
+            //calcular distancies al darrer centroide afegit
+            final int last = chosen - 1;
+            runChunks(chunkCount(points.nRows), chunk -> {
+                int end = Math.min(points.nRows, (chunk + 1) * CHUNK_SIZE);
+                for(int i = chunk * CHUNK_SIZE; i < end; i++){
+                    double d = matrix != null ? matrix.get(i, chosenRows[last]) : points.distance(i, centroids, last);
+                    if(d < minDist[i]) minDist[i] = d;
+                    dist[i] = minDist[i]*minDist[i];
+                }
+            });
+
+            //seleccio aleatoria proporcional a D(x)^2
+
+            double total = 0;
+            for(double d : dist) total+=d;
+
+            double threshold = random.nextDouble() * total;
+
+            double sum = 0;
+            int i;
+            for(i = 0; i < points.nRows - 1; i++){
+                sum+= dist[i];
+                if(sum >= threshold) break;
+            }
+            centroids.copyRow(chosen, points, i);
+            chosenRows[chosen] = i;
+        }
+        return centroids;
+    }
+
+    /**
+     * Kmeans++ initialization restricted to canopies. Every answer keeps the full distance to its closest centroid
+     * among the ones it shares a canopy with, answers that share no canopy with any centroid count as 1, the largest distance.
+     * Each round only measures the last centroid against the answers of its canopies, bounded by the distance they already have
+     * @param points encoded answers the centroids are picked from
+     * @param canopies canopies of points
+     * @param K number of centroids
+     * @param random random generator of the run
+     * @return KmeansData of k centroids
+     * @throws Exception if a chunk fails
+     */
+    private KmeansData canopyPlus(KmeansData points, Canopies canopies, int K, Random random) throws Exception{
+        KmeansData centroids = points.emptyLike(K);
+        int row = (int)(random.nextDouble() * (points.nRows));
+        DistanceMatrix matrix = points == data ? distances : null;
+        double[] minDist = new double[points.nRows];
+        Arrays.fill(minDist, 1.0);
+        boolean[] mark = new boolean[points.nRows];
+        for(int chosen = 0; chosen < K; chosen++){
+            centroids.copyRow(chosen, points, row);
+            if(chosen == K - 1) break;
+            //nomes es mesuren els answers que comparteixen alguna canopy amb el darrer centroide
+            final int last = chosen, lastRow = row;
+            int[] near = canopies.neighbours(row, mark);
+            runChunks(chunkCount(near.length), chunk -> {
+                int end = Math.min(near.length, (chunk + 1) * CHUNK_SIZE);
+                for(int n = chunk * CHUNK_SIZE; n < end; n++){
+                    int i = near[n];
+                    double d = matrix != null ? matrix.get(i, lastRow) : points.distance(i, centroids, last, minDist[i]);
+                    if(d < minDist[i]) minDist[i] = d;
+                }
+            });
+
+            //seleccio aleatoria proporcional a D(x)^2
+            double total = 0;
+            for(double d : minDist) total += d*d;
+            double threshold = random.nextDouble() * total;
+            double sum = 0;
+            for(row = 0; row < points.nRows - 1; row++){
+                sum += minDist[row]*minDist[row];
+                if(sum >= threshold) break;
+            }
+        }
+        return centroids;
+    }
+
+    /**
+     * Calculates the total distance between an encoded answer and a centroid across all questions
+     * @param row row of the encoded answer
+     * @param centroids encoded centroids
+     * @param k index of the centroid
+     * @return double average distance normalized between 0 and 1
+     */
+    private double distanceTotal(int row, KmeansData centroids, int k){
+        return data.distance(row, centroids, k);
+    }
+
+    /**
+     * Gets the cleaned answers from last execution,
+     * @return
+     */
+    public ArrayList<Answer> getCleanAnswers(ArrayList<Answer> answers){
+        if(matDades == null){
+            setAnswers(answers);
+        }
+        return matDades;
+    }
+    /**
+     * Returns the answer that is the most far from the centroid, so the point that is worst asigned
+     * @param cluster rows of the cluster
+     * @param centroids encoded centroids
+     * @param k index of the centroid
+     * @return int The row with most distance to it's centroid, -1 if the cluster is empty
+     */
+    @SuppressWarnings("unused")
+    private int worstPoint(ArrayList<Integer> cluster, KmeansData centroids, int k){
+        int result = -1;
+        double maxDistance = 0.0;
+        for(int row : cluster){
+            double dist = distanceTotal(row, centroids, k);
+            if(dist > maxDistance){
+                maxDistance = dist;
+                result = row;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the answers that are the most close from their centroids, in one pass over the assignment
+     * @param assignment cluster of every row
+     * @param centroids encoded centroids
+     * @return int[] The row with minimum distance to every centroid, -1 if the cluster is empty
+     */
+    private int[] bestPoints(int[] assignment, KmeansData centroids){
+        int[] result = new int[centroids.nRows];
+        double[] minDistance = new double[centroids.nRows];
+        Arrays.fill(result, -1);
+        Arrays.fill(minDistance, Double.MAX_VALUE);
+        for(int row = 0; row < assignment.length; row++){
+            int k = assignment[row];
+            double dist = distanceTotal(row, centroids, k);
+            if(dist < minDistance[k]){
+                minDistance[k] = dist;
+                result[k] = row;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Executs the K-means clustering algorithm on the form's answers
+     * Only reads shared state, so several runs can execute at the same time.
+     * The assignment, the statistics and the two centroid buffers are allocated once per run and reused by every iteration,
+     * the statistics are updated with the answers that changed cluster only, and the run converges when none does
+     * @param K number of clusters
+     * @param random random generator of the run
+     * @param abandon checked every iteration, when true the run stops and its result is not meant to be used
+     * @return KmeansRes of the execution
+     */
+    private KmeansRes kMeansExec(int K, Random random, BooleanSupplier abandon) throws Exception{
+        KmeansData centroids = kmeansPlus(data, K, random);
+        KmeansData next = data.emptyLike(K); //buffer dels centroides seguents, s'intercanvia amb centroids a cada iteracio
+        int[] assignment = new int[data.nRows];
+        Arrays.fill(assignment, -1);
+        ClusterStats[][] partial = newStats(chunkCount(), K);
+        ClusterStats[] stats = newStats(1, K)[0]; //es mantenen entre iteracions, nomes s'hi apliquen els answers que canvien de cluster
+        Moves moves = new Moves(data.nRows, chunkCount());
+        HamerlyBounds bounds = useAcceleration() ? new HamerlyBounds(data.nRows) : null;
+        boolean reseeded = false;
+        int currentIteration = 0;
+        while (currentIteration < maxIterations && !abandon.getAsBoolean()){
+            if(stopRequested() && currentIteration > 0) break; //al limit de temps es queda el resultat fins ara, amb almenys una assignacio
+            //asigna cada answer al cluster al centroide mes proper i actualitza les estadistiques amb els que s'han mogut
+            int changes = assign(centroids, assignment, bounds, moves);
+            updateStats(assignment, moves, partial, stats);
+            currentIteration++;
+            if(bounds != null){
+                bounds.setReady();
+                if(accelerationRejected || (validateAcceleration && !matchesExact(centroids, assignment))){
+                    accelerationRejected = true;
+                    bounds = null;
+                    changes += assign(centroids, assignment, null, moves);
+                    updateStats(assignment, moves, partial, stats);
+                }
+            }
+            if(progress != null) progress.onProgress(K, currentIteration, changes);
+            //convergencia: cap answer ha canviat de cluster, els centroides ja son la mitjana dels seus membres
+            if(changes == 0 && !reseeded) break;
+            //crear seguents centroides
+            reseeded = false;
+            for(int k = 0; k<K; k++) {
+                if(stats[k].size() == 0){
+                    int randIndex = (int) (random.nextDouble() * data.nRows);
+                    next.copyRow(k, data, randIndex);
+                    reseeded = true;
+                }
+                else{
+                    stats[k].writeCentroid(next, k);
+                }
+            }
+            if(bounds != null && !bounds.moveCentroids(data, centroids, next)){
+                accelerationRejected = true; //els centroides trenquen la desigualtat triangular, la resta de la execucio es exacta
+                bounds = null;
+            }
+            KmeansData previous = centroids;
+            centroids = next;
+            next = previous;
+        }
+        KmeansRes kr = new KmeansRes(assignment, centroids);
+        kr.iterations = currentIteration;
+        kr.wcss = wcss(kr);
+        return kr;
+    }
+
+    /**
+     * Executes the mini-batch K-means algorithm (Sculley) on the form's answers.
+     * Centroids are seeded by kmeans++ over a sample, then every batch assigns batchSize random answers to the current centroids
+     * and moves the centroids that received answers: numeric columns with a per centroid learning rate (1 / answers seen by
+     * that centroid in that question), the other columns from the running frequencies of every answer the centroid has seen.
+     * Stops after maxBatches batches, or when no centroid moved for MINI_BATCH_PATIENCE batches in a row,
+     * and finishes with one full assignment
+     * @param K number of clusters
+     * @param random random generator of the run
+     * @return KmeansRes of the execution, iterations is the number of batches
+     * @throws Exception if a chunk fails
+     */
+    private KmeansRes miniBatchExec(int K, Random random) throws Exception{
+        KmeansData seedSample = sample(Math.max(K, SEED_BATCHES * batchSize), random);
+        KmeansData centroids = kmeansPlus(seedSample, K, random);
+        //cada centroide comença amb la seva llavor com a primer membre
+        ClusterStats[] seen = new ClusterStats[K];
+        double[][] numericCentroid = new double[nQuestions][K];
+        int[][] numericSeen = new int[nQuestions][K];
+        for(int k = 0; k < K; k++){
+            seen[k] = new ClusterStats(centroids);
+            seen[k].add(k);
+        }
+        for(int q = 0; q < nQuestions; q++){
+            if(data.types[q] != Question.QuestionType.NUMERIC) continue;
+            for(int k = 0; k < K; k++){
+                numericCentroid[q][k] = centroids.numeric[q][k];
+                numericSeen[q][k] = Double.isNaN(centroids.numeric[q][k]) ? 0 : 1;
+            }
+        }
+        //un sol batch, els seus acumuladors i dos buffers de centroides es reutilitzen a cada iteracio
+        KmeansData batch = batchSize >= data.nRows ? data : data.emptyLike(batchSize);
+        int[] batchAssignment = new int[batch.nRows];
+        boolean[] touched = new boolean[K];
+        ClusterStats[] batchStats = new ClusterStats[K];
+        for(int k = 0; k < K; k++) batchStats[k] = new ClusterStats(batch);
+        KmeansData next = data.emptyLike(K);
+        int batches = 0, stillBatches = 0;
+        while(batches < maxBatches && stillBatches < MINI_BATCH_PATIENCE && (batches == 0 || !stopRequested())){
+            if(batch != data) for(int row = 0; row < batch.nRows; row++) batch.copyRow(row, data, random.nextInt(data.nRows));
+            //assigna tot el batch als centroides actuals abans de moure'ls
+            int[] assignment = batchAssignment;
+            final KmeansData current = centroids;
+            runChunks(chunkCount(batch.nRows), chunk -> {
+                int end = Math.min(batch.nRows, (chunk + 1) * CHUNK_SIZE);
+                double[] sum = new double[K], count = new double[K];
+                for(int row = chunk * CHUNK_SIZE; row < end; row++) assignment[row] = closestCentroid(batch, row, current, sum, count);
+            });
+            Arrays.fill(touched, false);
+            for(int k = 0; k < K; k++) batchStats[k].clear();
+            for(int row = 0; row < batch.nRows; row++){
+                int k = assignment[row];
+                touched[k] = true;
+                batchStats[k].add(row);
+                for(int q = 0; q < nQuestions; q++){
+                    if(data.types[q] != Question.QuestionType.NUMERIC) continue;
+                    double v = batch.numeric[q][row];
+                    if(Double.isNaN(v)) continue;
+                    numericSeen[q][k]++;
+                    if(numericSeen[q][k] == 1) numericCentroid[q][k] = v;
+                    else numericCentroid[q][k] += (v - numericCentroid[q][k]) / numericSeen[q][k];
+                }
+            }
+            KmeansData newCentroids = next;
+            int moved = 0;
+            for(int k = 0; k < K; k++){
+                if(!touched[k]){
+                    newCentroids.copyRow(k, centroids, k);
+                    continue;
+                }
+                seen[k].merge(batchStats[k]);
+                seen[k].writeCentroid(newCentroids, k);
+                for(int q = 0; q < nQuestions; q++){
+                    if(data.types[q] == Question.QuestionType.NUMERIC) newCentroids.numeric[q][k] = numericSeen[q][k] == 0 ? KmeansData.MISSING_NUMERIC : numericCentroid[q][k];
+                }
+                if(newCentroids.distance(k, centroids, k) > precision) moved++;
+            }
+            next = centroids;
+            centroids = newCentroids;
+            stillBatches = moved > 0 ? 0 : stillBatches + 1;
+            batches++;
+            if(progress != null) progress.onProgress(K, batches, moved);
+        }
+        int[] assignment = new int[data.nRows];
+        assign(centroids, assignment, null, null);
+        KmeansRes kr = new KmeansRes(assignment, centroids);
+        kr.iterations = batches;
+        kr.wcss = wcss(kr);
+        return kr;
+    }
+
+    /**
+     * Splits the leaves of the hierarchy until it has K leaves or no leaf can be split.
+     * The bisections of the new leaves are computed together, concurrently on the pool, every node with its own random stream,
+     * so the hierarchy does not depend on the parallelism nor on the K it was grown to before
+     * @param K number of leaves wanted
+     * @throws Exception if a bisection fails
+     */
+    private void growHierarchy(int K) throws Exception{
+        while(true){
+            ArrayList<Integer> pending = hierarchy.pendingBisections();
+            if(!pending.isEmpty()){
+                BisectingTree.Bisection[] halves = new BisectingTree.Bisection[pending.size()];
+                if(pool == null || pending.size() == 1){
+                    for(int i = 0; i < halves.length; i++) halves[i] = bisect(pending.get(i));
+                }
+                else{
+                    List<Callable<BisectingTree.Bisection>> tasks = new ArrayList<>(pending.size());
+                    for(int node : pending) tasks.add(() -> bisect(node));
+                    List<Future<BisectingTree.Bisection>> results = pool.invokeAll(tasks);
+                    for(int i = 0; i < halves.length; i++){
+                        try{
+                            halves[i] = results.get(i).get();
+                        } catch (ExecutionException e){
+                            if(e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                            throw e;
+                        }
+                    }
+                }
+                for(int i = 0; i < halves.length; i++){
+                    BisectingTree.Node n = hierarchy.nodes.get(pending.get(i));
+                    n.bisection = halves[i];
+                    n.bisected = true;
+                }
+            }
+            if(hierarchy.splits() + 1 >= K || stopRequested()) return;
+            int next = hierarchy.nextSplit(bisectingSplit);
+            if(next < 0) return;
+            int moved = hierarchy.nodes.get(next).rows.length;
+            hierarchy.split(next);
+            if(progress != null) progress.onProgress(hierarchy.splits() + 1, hierarchy.splits(), moved);
+        }
+    }
+
+    /**
+     * Bisects a leaf of the hierarchy with 2-means, BISECT_TRIALS times from different seedings, keeping the lowest WCSS.
+     * Every trial seeds one centroid at a random answer of the leaf and the other one by D(x)^2, then alternates
+     * assignment (in chunks on the pool) and centroid update until no answer changes half or the WCSS stops going down
+     * @param node index of the leaf
+     * @return Bisection of the leaf, null if it has less than 2 answers or all of them are equal
+     * @throws Exception if a chunk fails
+     */
+    private BisectingTree.Bisection bisect(int node) throws Exception{
+        int[] rows = hierarchy.nodes.get(node).rows;
+        int n = rows.length;
+        if(n < 2) return null;
+        Random random = new Random(hierarchy.seed ^ (node * 0x9E3779B97F4A7C15L));
+        int nChunks = chunkCount(n);
+        BisectingTree.Bisection best = null;
+        for(int trial = 0; trial < BISECT_TRIALS; trial++){
+            KmeansData centroids = data.emptyLike(2);
+            centroids.copyRow(0, data, rows[random.nextInt(n)]);
+            double[] dist = new double[n];
+            runChunks(nChunks, chunk -> {
+                int end = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+                for(int i = chunk * CHUNK_SIZE; i < end; i++){
+                    double d = data.distance(rows[i], centroids, 0);
+                    dist[i] = d*d;
+                }
+            });
+            double total = 0;
+            for(double d : dist) total += d;
+            if(total == 0) return null; //totes les respostes son iguals, no es pot partir
+            double threshold = random.nextDouble() * total;
+            double sum = 0;
+            int second;
+            for(second = 0; second < n - 1; second++){
+                sum += dist[second];
+                if(sum >= threshold) break;
+            }
+            centroids.copyRow(1, data, rows[second]);
+
+            int[] half = new int[n];
+            Arrays.fill(half, -1);
+            int[] changes = new int[nChunks];
+            double[] chunkWCSS = new double[nChunks];
+            ClusterStats[][] partial = newStats(nChunks, 2);
+            ClusterStats[] stats = newStats(1, 2)[0];
+            double lastWCSS = Double.POSITIVE_INFINITY;
+            for(int iteration = 0; iteration < maxIterations && (iteration == 0 || !stopRequested()); iteration++){
+                runChunks(nChunks, chunk -> {
+                    int end = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+                    changes[chunk] = 0;
+                    chunkWCSS[chunk] = 0.0;
+                    partial[chunk][0].clear();
+                    partial[chunk][1].clear();
+                    for(int i = chunk * CHUNK_SIZE; i < end; i++){
+                        double d0 = data.distance(rows[i], centroids, 0);
+                        double d1 = data.distance(rows[i], centroids, 1, d0);
+                        int h = d1 < d0 ? 1 : 0;
+                        if(h != half[i]) changes[chunk]++;
+                        half[i] = h;
+                        chunkWCSS[chunk] += Math.min(d0, d1) * Math.min(d0, d1);
+                        partial[chunk][h].add(rows[i]);
+                    }
+                });
+                int changed = 0;
+                double wcss = 0.0;
+                for(int chunk = 0; chunk < nChunks; chunk++){
+                    changed += changes[chunk];
+                    wcss += chunkWCSS[chunk];
+                }
+                stats[0].clear();
+                stats[1].clear();
+                for(int chunk = 0; chunk < nChunks; chunk++){
+                    stats[0].merge(partial[chunk][0]);
+                    stats[1].merge(partial[chunk][1]);
+                }
+                if(stats[0].size() == 0 || stats[1].size() == 0) break;
+                stats[0].writeCentroid(centroids, 0);
+                stats[1].writeCentroid(centroids, 1);
+                //els centroides de les preguntes no numeriques poden oscil·lar, es para quan la WCSS ja no baixa
+                if(changed == 0 || wcss >= lastWCSS * (1.0 - precision)) break;
+                lastWCSS = wcss;
+            }
+            if(stats[0].size() == 0 || stats[1].size() == 0) continue;
+
+            //WCSS de cada meitat respecte dels centroides finals
+            double[][] chunkSSE = new double[nChunks][2];
+            runChunks(nChunks, chunk -> {
+                int end = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+                for(int i = chunk * CHUNK_SIZE; i < end; i++){
+                    double d = data.distance(rows[i], centroids, half[i]);
+                    chunkSSE[chunk][half[i]] += d*d;
+                }
+            });
+            double[] sse = new double[2];
+            for(double[] c : chunkSSE){
+                sse[0] += c[0];
+                sse[1] += c[1];
+            }
+            if(best != null && sse[0] + sse[1] >= best.total()) continue;
+            int[][] halves = new int[][]{new int[stats[0].size()], new int[stats[1].size()]};
+            int[] filled = new int[2];
+            for(int i = 0; i < n; i++) halves[half[i]][filled[half[i]]++] = rows[i];
+            best = new BisectingTree.Bisection(halves, stats, sse);
+        }
+        return best;
+    }
+
+    /**
+     * Draws a random sample of the encoded answers, without replacement so no answer weighs twice
+     * @param size number of rows of the sample
+     * @param random random generator of the run
+     * @return KmeansData with the sampled rows, or the encoded answers themselves if size is not smaller
+     */
+    private KmeansData sample(int size, Random random){
+        if(size >= data.nRows) return data;
+        int[] rows = sampleRows(size, null, random);
+        KmeansData sample = data.emptyLike(size);
+        for(int row = 0; row < size; row++) sample.copyRow(row, data, rows[row]);
+        return sample;
+    }
+
+    /**
+     * Executes CLARA (Kaufman and Rousseeuw): PAM picks K medoids among a random sample of the answers, every answer
+     * is assigned to its closest medoid, and the medoids with the lowest total distance over medoidSamples samples are kept.
+     * Every sample after the first one contains the best medoids so far. The answers keep their medoid as centroid,
+     * so the result can be evaluated like a kmeans clustering
+     * @param K number of clusters, at most the number of answers
+     * @param random random generator of the run
+     * @return KmeansRes of the best medoids with their rows, iterations is the number of PAM swaps of that sample
+     * @throws Exception if a chunk fails
+     */
+    private KmeansRes claraExec(int K, Random random) throws Exception{
+        K = Math.min(K, data.nRows);
+        int size = Math.min(data.nRows, medoidSampleSize > 0 ? Math.max(medoidSampleSize, K) : 40 + 2 * K);
+        int samples = size == data.nRows ? 1 : medoidSamples; //si la mostra son totes les respostes, totes les mostres son iguals
+        int[] best = null, bestAssignment = new int[data.nRows], assignment = new int[data.nRows];
+        KmeansData bestMedoids = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestSwaps = 0;
+        for(int s = 0; s < samples && (s == 0 || !stopRequested()); s++){
+            int[] rows = sampleRows(size, best, random);
+            KmeansData sample = data.emptyLike(size);
+            for(int i = 0; i < size; i++) sample.copyRow(i, data, rows[i]);
+            //si la matriu de la mostra no cap al pressupost, les distancies es mesuren directament
+            DistanceMatrix m = DistanceMatrix.create(size, distanceBudget);
+            if(m != null) runChunks((size + PAM_CHUNK - 1) / PAM_CHUNK, chunk -> m.fillRows(sample, chunk * PAM_CHUNK, Math.min(size, (chunk + 1) * PAM_CHUNK)));
+            int[] medoidIdx = new int[K];
+            int swaps = size < 2 ? 0 : pam(sample, m, K, medoidIdx); //una sola resposta: el medoide es ella mateixa
+            int[] medoidRows = new int[K];
+            KmeansData medoids = data.emptyLike(K);
+            for(int k = 0; k < K; k++){
+                medoidRows[k] = rows[medoidIdx[k]];
+                medoids.copyRow(k, data, medoidRows[k]);
+            }
+            double cost = medoidCost(medoids, assignment);
+            if(cost < bestCost){
+                bestCost = cost;
+                best = medoidRows;
+                bestMedoids = medoids;
+                bestSwaps = swaps;
+                int[] aux = bestAssignment;
+                bestAssignment = assignment;
+                assignment = aux;
+            }
+        }
+        //un medoide sempre pertany al seu cluster, encara que empati amb un altre medoide identic
+        for(int k = 0; k < K; k++) bestAssignment[best[k]] = k;
+        KmeansRes kr = new KmeansRes(bestAssignment, bestMedoids);
+        kr.medoids = best;
+        kr.iterations = bestSwaps;
+        kr.wcss = wcss(kr);
+        return kr;
+    }
+
+    /**
+     * Draws the rows of a sample without replacement, starting with the best medoids so far in CLARA
+     * @param size number of rows of the sample
+     * @param medoids rows that must be in the sample, null for none
+     * @param random random generator of the run
+     * @return int[] rows of the sample, the medoids first
+     */
+    private int[] sampleRows(int size, int[] medoids, Random random){
+        int[] rows = new int[size];
+        boolean[] taken = new boolean[data.nRows];
+        int filled = 0;
+        if(medoids != null){
+            for(int row : medoids){
+                rows[filled++] = row;
+                taken[row] = true;
+            }
+        }
+        int[] rest = new int[data.nRows - filled];
+        int n = 0;
+        for(int row = 0; row < data.nRows; row++) if(!taken[row]) rest[n++] = row;
+        //Fisher-Yates parcial sobre les files que falten
+        for(int i = 0; filled < size; i++){
+            int j = i + random.nextInt(n - i);
+            int aux = rest[i];
+            rest[i] = rest[j];
+            rest[j] = aux;
+            rows[filled++] = rest[i];
+        }
+        return rows;
+    }
+
+    /**
+     * PAM (Partitioning Around Medoids) over the answers of a sample: BUILD picks the medoids greedily, then SWAP
+     * exchanges the medoid and non medoid that lower the total distance of the answers to their closest medoid the most,
+     * until no exchange lowers it by more than precision. The change of a candidate is evaluated for every medoid at once
+     * from the distances to the closest and second closest medoid (FastPAM1, Schubert and Rousseeuw).
+     * Candidates are evaluated in parallel chunks and the best one is chosen in chunk order, so the result does not depend on the parallelism
+     * @param sample encoded answers of the sample
+     * @param m distances between the answers of the sample, null to measure them directly
+     * @param K number of medoids, at most sample.nRows
+     * @param medoids Output, row in the sample of every medoid
+     * @return int number of swaps done
+     * @throws Exception if a chunk fails
+     */
+    private int pam(KmeansData sample, DistanceMatrix m, int K, int[] medoids) throws Exception{
+        int n = sample.nRows;
+        int nChunks = (n + PAM_CHUNK - 1) / PAM_CHUNK;
+        boolean[] isMedoid = new boolean[n];
+        int[] nearest = new int[n];
+        double[] d1 = new double[n], d2 = new double[n];
+        Arrays.fill(d1, Double.POSITIVE_INFINITY);
+        //BUILD: cada medoide nou es el que mes redueix la distancia total
+        double[] gain = new double[n];
+        for(int k = 0; k < K; k++){
+            final boolean first = k == 0;
+            runChunks(nChunks, chunk -> {
+                int end = Math.min(n, (chunk + 1) * PAM_CHUNK);
+                for(int h = chunk * PAM_CHUNK; h < end; h++){
+                    if(isMedoid[h]) continue;
+                    double g = 0.0;
+                    for(int j = 0; j < n; j++){
+                        double dj = sampleDistance(sample, m, j, h);
+                        if(first) g -= dj; //el primer medoide es el de menor distancia total
+                        else if(dj < d1[j]) g += d1[j] - dj;
+                    }
+                    gain[h] = g;
+                }
+            });
+            int chosen = -1;
+            for(int h = 0; h < n; h++){
+                if(!isMedoid[h] && (chosen < 0 || gain[h] > gain[chosen])) chosen = h;
+            }
+            medoids[k] = chosen;
+            isMedoid[chosen] = true;
+            for(int j = 0; j < n; j++) d1[j] = Math.min(d1[j], sampleDistance(sample, m, j, chosen));
+        }
+        nearestMedoids(sample, m, medoids, nearest, d1, d2);
+        //SWAP
+        double[] chunkDelta = new double[nChunks];
+        int[] chunkMedoid = new int[nChunks], chunkCandidate = new int[nChunks];
+        int swaps = 0;
+        int[] previous = new int[n];
+        while(swaps < maxIterations && (swaps == 0 || !stopRequested())){
+            runChunks(nChunks, chunk -> {
+                double[] delta = new double[K];
+                double bestDelta = Double.POSITIVE_INFINITY;
+                int bestMedoid = -1, bestCandidate = -1;
+                int end = Math.min(n, (chunk + 1) * PAM_CHUNK);
+                for(int h = chunk * PAM_CHUNK; h < end; h++){
+                    if(isMedoid[h]) continue;
+                    //shared: canvi si h entra sense treure cap medoide, delta[i]: correccio si surt el medoide i
+                    Arrays.fill(delta, 0.0);
+                    double shared = 0.0;
+                    for(int j = 0; j < n; j++){
+                        double dj = sampleDistance(sample, m, j, h);
+                        double stay = Math.min(dj - d1[j], 0.0);
+                        shared += stay;
+                        delta[nearest[j]] += Math.min(dj, d2[j]) - d1[j] - stay;
+                    }
+                    for(int i = 0; i < K; i++){
+                        if(shared + delta[i] < bestDelta){
+                            bestDelta = shared + delta[i];
+                            bestMedoid = i;
+                            bestCandidate = h;
+                        }
+                    }
+                }
+                chunkDelta[chunk] = bestDelta;
+                chunkMedoid[chunk] = bestMedoid;
+                chunkCandidate[chunk] = bestCandidate;
+            });
+            int best = 0;
+            for(int c = 1; c < nChunks; c++) if(chunkDelta[c] < chunkDelta[best]) best = c;
+            if(!(chunkDelta[best] < -precision)) break;
+            isMedoid[medoids[chunkMedoid[best]]] = false;
+            medoids[chunkMedoid[best]] = chunkCandidate[best];
+            isMedoid[chunkCandidate[best]] = true;
+            System.arraycopy(nearest, 0, previous, 0, n);
+            nearestMedoids(sample, m, medoids, nearest, d1, d2);
+            swaps++;
+            if(progress != null){
+                int changes = 0;
+                for(int j = 0; j < n; j++) if(nearest[j] != previous[j] || medoids[nearest[j]] == chunkCandidate[best]) changes++;
+                progress.onProgress(K, swaps, changes);
+            }
+        }
+        return swaps;
+    }
+
+    /**
+     * Distance between two answers of a sample, from its distance matrix if it was computed
+     * @param sample encoded answers of the sample
+     * @param m distances between the answers of the sample, null if not computed
+     * @param a row of the first answer
+     * @param b row of the second answer
+     * @return double distance normalized between 0 and 1
+     */
+    private static double sampleDistance(KmeansData sample, DistanceMatrix m, int a, int b){
+        if(m != null) return m.get(a, b);
+        return a == b ? 0.0 : sample.distance(a, sample, b);
+    }
+
+    /**
+     * Finds the closest and second closest medoid of every answer of a sample
+     * @param sample encoded answers of the sample
+     * @param m distances between the answers of the sample, null to measure them directly
+     * @param medoids row in the sample of every medoid
+     * @param nearest Output, position in medoids of the closest medoid of every answer
+     * @param d1 Output, distance to the closest medoid
+     * @param d2 Output, distance to the second closest medoid, infinite if there is only one
+     */
+    private static void nearestMedoids(KmeansData sample, DistanceMatrix m, int[] medoids, int[] nearest, double[] d1, double[] d2){
+        for(int j = 0; j < sample.nRows; j++){
+            double first = Double.POSITIVE_INFINITY, second = Double.POSITIVE_INFINITY;
+            int closest = 0;
+            for(int i = 0; i < medoids.length; i++){
+                double d = sampleDistance(sample, m, j, medoids[i]);
+                if(d < first){
+                    second = first;
+                    first = d;
+                    closest = i;
+                }
+                else if(d < second) second = d;
+            }
+            nearest[j] = closest;
+            d1[j] = first;
+            d2[j] = second;
+        }
+    }
+
+    /**
+     * Assigns every answer to its closest medoid and adds up their distances, in parallel chunks added up in chunk order
+     * @param medoids encoded medoids
+     * @param assignment Output, closest medoid of every answer
+     * @return double total distance of the answers to their medoid
+     * @throws Exception if a chunk fails
+     */
+    private double medoidCost(KmeansData medoids, int[] assignment) throws Exception{
+        double[] partial = new double[chunkCount()];
+        runChunks(chunkCount(), chunk -> {
+            int end = Math.min(data.nRows, (chunk + 1) * CHUNK_SIZE);
+            double sum = 0.0;
+            double[] scratch = new double[medoids.nRows], count = new double[medoids.nRows];
+            for(int row = chunk * CHUNK_SIZE; row < end; row++){
+                assignment[row] = closestCentroid(row, medoids, scratch, count);
+                sum += distanceTotal(row, medoids, assignment[row]);
+            }
+            partial[chunk] = sum;
+        });
+        double total = 0.0;
+        for(double p : partial) total += p;
+        return total;
+    }
+
+    /**
+     * Executes nInit kmeans runs from different kmeans++ seedings and keeps the one with lowest WCSS (the first one on ties).
+     * Restarts run concurrently on the pool, each one with its own random stream taken from random
+     * @param K number of clusters
+     * @param random random generator the restart seeds are drawn from
+     * @param abandon checked every iteration, when true the runs stop and the result is not meant to be used
+     * @return KmeansRes of the best restart, with the WCSS and iterations of every restart
+     * @throws Exception if a run fails
+     */
+    private KmeansRes bestOfRestarts(int K, Random random, BooleanSupplier abandon) throws Exception{
+        long[] seeds = new long[nInit];
+        for(int r = 0; r < nInit; r++) seeds[r] = random.nextLong();
+        KmeansRes[] runs = new KmeansRes[nInit];
+        if(pool == null || nInit == 1){
+            for(int r = 0; r < nInit; r++) runs[r] = kMeansExec(K, new Random(seeds[r]), abandon);
+        }
+        else{
+            List<Callable<KmeansRes>> tasks = new ArrayList<>(nInit);
+            for(int r = 0; r < nInit; r++){
+                final long seed = seeds[r];
+                tasks.add(() -> kMeansExec(K, new Random(seed), abandon));
+            }
+            List<Future<KmeansRes>> results = pool.invokeAll(tasks);
+            for(int r = 0; r < nInit; r++){
+                try{
+                    runs[r] = results.get(r).get();
+                } catch (ExecutionException e){
+                    if(e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                    throw e;
                 }
-                ai /= (clusterAnswers.size() - 1);
-                double bi = Double.POSITIVE_INFINITY; //minimum mean between i an any other cluster
-                for(ArrayList<Answer> otherClusterAnswers : lastClustering.clusters){
-                    if(otherClusterAnswers != clusterAnswers){
-                        if(otherClusterAnswers.size() <= 1) continue; //skip empty clusters (or only one)
-                        double meanDist = 0.0;
-                        for(Answer b : otherClusterAnswers) meanDist += distanceTotal(a,b);
-                        meanDist /= otherClusterAnswers.size();
-                        if(meanDist < bi) bi = meanDist;
+            }
+        }
+        KmeansRes best = runs[0];
+        double[] restartWCSS = new double[nInit];
+        int[] restartIterations = new int[nInit];
+        for(int r = 0; r < nInit; r++){
+            restartWCSS[r] = runs[r].wcss;
+            restartIterations[r] = runs[r].iterations;
+            if(runs[r].wcss < best.wcss) best = runs[r];
+        }
+        best.restartWCSS = restartWCSS;
+        best.restartIterations = restartIterations;
+        return best;
+    }
+
+    /**
+     * Rows that changed cluster in the last assignment, grouped by chunk.
+     * The buffers are allocated once per run, every chunk writes only inside its own range of rows
+     */
+    private static final class Moves {
+        /**
+         * Attributes
+         * rows: Moved rows, the ones of a chunk start at the first row of the chunk
+         * from: Previous cluster of every moved row, -1 if it had none
+         * count: Number of moved rows of every chunk
+         */
+        final int[] rows;
+        final int[] from;
+        final int[] count;
+
+        /**
+         * Creates empty buffers
+         * @param nRows number of encoded answers
+         * @param nChunks number of chunks
+         */
+        Moves(int nRows, int nChunks){
+            rows = new int[nRows];
+            from = new int[nRows];
+            count = new int[nChunks];
+        }
+
+        /**
+         * Total number of moved rows
+         * @return int moved rows of every chunk
+         */
+        int total(){
+            int total = 0;
+            for(int c : count) total += c;
+            return total;
+        }
+    }
+
+    /**
+     * Assigns every encoded answer to its closest centroid, chunk by chunk on the pool when running in parallel
+     * @param centroids encoded centroids
+     * @param assignment input and output, index of the closest centroid of every row
+     * @param bounds distance bounds of the accelerated assignment, null for the exact one
+     * @param moves reusable output, rows whose cluster changed, null if they are not needed
+     * @return int number of rows whose cluster changed
+     * @throws Exception if a chunk fails
+     */
+    private int assign(KmeansData centroids, int[] assignment, HamerlyBounds bounds, Moves moves) throws Exception{
+        int nChunks = chunkCount();
+        int[] changes = moves == null ? new int[nChunks] : moves.count;
+        runChunks(nChunks, chunk -> {
+            int start = chunk * CHUNK_SIZE;
+            int end = Math.min(data.nRows, start + CHUNK_SIZE);
+            changes[chunk] = 0;
+            double[] sum = bounds == null ? new double[centroids.nRows] : null, count = bounds == null ? new double[centroids.nRows] : null;
+            for(int row = start; row < end; row++){
+                int closest = bounds == null ? closestCentroid(row, centroids, sum, count) : bounds.assign(data, row, centroids, assignment[row]);
+                if(closest != assignment[row]){
+                    if(moves != null){
+                        moves.rows[start + changes[chunk]] = row;
+                        moves.from[start + changes[chunk]] = assignment[row];
                     }
+                    assignment[row] = closest;
+                    changes[chunk]++;
+                }
+            }
+        });
+        int total = 0;
+        for(int c : changes) total += c;
+        return total;
+    }
+
+    /**
+     * Brings the statistics of every cluster up to date after an assignment.
+     * Only the moved rows are removed from their old cluster and added to the new one, so the cost
+     * depends on the answers that moved and not on the number of answers. When more than half of
+     * the answers moved (the first iteration), the statistics are rebuilt in parallel instead.
+     * Moves are applied, and partial statistics merged, in chunk order, so the result does not depend on the parallelism
+     * @param assignment cluster of every row
+     * @param moves rows that changed cluster in the last assignment
+     * @param partial reusable statistics of every chunk and cluster (see newStats)
+     * @param stats input and output, statistics of every cluster
+     * @throws Exception if a chunk fails
+     */
+    private void updateStats(int[] assignment, Moves moves, ClusterStats[][] partial, ClusterStats[] stats) throws Exception{
+        int nChunks = moves.count.length;
+        int nClusters = stats.length;
+        if(2L * moves.total() > data.nRows){
+            runChunks(nChunks, chunk -> {
+                ClusterStats[] chunkStats = partial[chunk];
+                for(int k = 0; k < nClusters; k++) chunkStats[k].clear();
+                int end = Math.min(data.nRows, (chunk + 1) * CHUNK_SIZE);
+                for(int row = chunk * CHUNK_SIZE; row < end; row++) chunkStats[assignment[row]].add(row);
+            });
+            for(int k = 0; k < nClusters; k++){
+                stats[k].clear();
+                for(int chunk = 0; chunk < nChunks; chunk++) stats[k].merge(partial[chunk][k]);
+            }
+            return;
+        }
+        for(int chunk = 0; chunk < nChunks; chunk++){
+            int start = chunk * CHUNK_SIZE;
+            for(int m = start; m < start + moves.count[chunk]; m++){
+                int row = moves.rows[m];
+                if(moves.from[m] >= 0) stats[moves.from[m]].remove(row);
+                stats[assignment[row]].add(row);
+            }
+        }
+    }
+
+    /**
+     * Allocates empty statistics over the encoded answers
+     * @param rows number of rows of statistics (chunks)
+     * @param K number of clusters
+     * @return ClusterStats[rows][K]
+     */
+    private ClusterStats[][] newStats(int rows, int K){
+        ClusterStats[][] stats = new ClusterStats[rows][K];
+        for(int r = 0; r < rows; r++){
+            for(int k = 0; k < K; k++) stats[r][k] = new ClusterStats(data);
+        }
+        return stats;
+    }
+
+    /**
+     * Checks an accelerated assignment against the exact closest centroid of every row
+     * @param centroids encoded centroids
+     * @param assignment assignment to check
+     * @return true if every row is assigned to its exact closest centroid
+     * @throws Exception if a chunk fails
+     */
+    private boolean matchesExact(KmeansData centroids, int[] assignment) throws Exception{
+        AtomicBoolean matches = new AtomicBoolean(true);
+        runChunks(chunkCount(), chunk -> {
+            int end = Math.min(data.nRows, (chunk + 1) * CHUNK_SIZE);
+            double[] sum = new double[centroids.nRows], count = new double[centroids.nRows];
+            for(int row = chunk * CHUNK_SIZE; row < end && matches.get(); row++){
+                if(closestCentroid(row, centroids, sum, count) != assignment[row]) matches.set(false);
+            }
+        });
+        return matches.get();
+    }
+
+    /**
+     * Number of chunks the encoded answers are split into
+     * @return int number of chunks
+     */
+    private int chunkCount(){
+        return chunkCount(data.nRows);
+    }
+
+    /**
+     * Number of chunks a number of rows is split into
+     * @param nRows number of rows
+     * @return int number of chunks
+     */
+    private int chunkCount(int nRows){
+        return (nRows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    /**
+     * Runs a task for every chunk, on the pool if there is one and more than one chunk, else on the calling thread
+     * @param nChunks number of chunks
+     * @param task task receiving the chunk index, must only write to its own rows
+     * @throws Exception if a chunk fails
+     */
+    private void runChunks(int nChunks, IntConsumer task) throws Exception{
+        if(pool == null || nChunks <= 1){
+            for(int chunk = 0; chunk < nChunks; chunk++) task.accept(chunk);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(nChunks);
+        for(int chunk = 0; chunk < nChunks; chunk++){
+            final int c = chunk;
+            tasks.add(() -> { task.accept(c); return null; });
+        }
+        for(Future<Void> f : pool.invokeAll(tasks)){
+            try{
+                f.get();
+            } catch (ExecutionException e){
+                if(e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Checks the cancellation token and the deadline of the current execution
+     * @return true if the deadline has passed, the execution should stop and keep its best result so far
+     * @throws CancellationException if the execution was cancelled
+     */
+    private boolean stopRequested(){
+        if(cancellation != null && cancellation.isCancelled()) throw new CancellationException("Clustering cancelled");
+        if(deadline == Long.MAX_VALUE || System.currentTimeMillis() < deadline) return false;
+        deadlineReached = true;
+        return true;
+    }
+
+    /**
+     * Creates the fork-join pool for a run when the parallelism is greater than 1, and opens the open ended distance cache.
+     * Every execution starts here, so it also clears the deadline flag of the last one
+     */
+    private void startPool(){
+        deadlineReached = false;
+        if(parallelism > 1) pool = new ForkJoinPool(parallelism);
+        data.openCache.open(openCacheSize);
+    }
+
+    /**
+     * Shuts down the pool of the last run and releases the entries of its open ended distance cache,
+     * and its distance matrix unless it is kept for the next evaluation
+     */
+    private void stopPool(){
+        if(pool != null) pool.shutdown();
+        pool = null;
+        data.openCache.close();
+        if(!keepDistances) distances = null;
+    }
+
+    /**
+     * Returns the index of the centroid closest to an encoded answer
+     * @param row row of the encoded answer
+     * @param centroids encoded centroids
+     * @param sum scratch buffer of at least one position per centroid, overwritten
+     * @param count scratch buffer of at least one position per centroid, overwritten
+     * @return int index of the closest centroid
+     */
+    private int closestCentroid(int row, KmeansData centroids, double[] sum, double[] count){
+        return closestCentroid(data, row, centroids, sum, count);
+    }
+
+    /**
+     * Returns the index of the centroid closest to a row of some encoded answers, the NUMERIC and ordered
+     * MULTIPLE_CHOICE part is computed for all the centroids at once by the distance kernel,
+     * and every centroid is only measured in full if it can beat the closest one so far
+     * @param points encoded answers
+     * @param row row of the encoded answer
+     * @param centroids encoded centroids
+     * @param sum scratch buffer of at least one position per centroid, overwritten (allocated once per chunk, not per answer)
+     * @param count scratch buffer of at least one position per centroid, overwritten
+     * @return int index of the closest centroid
+     */
+    private static int closestCentroid(KmeansData points, int row, KmeansData centroids, double[] sum, double[] count){
+        double minDist = Double.POSITIVE_INFINITY;
+        int closestCluster = 0;
+        //part numerica i ordinal contra tots els centroides de cop, la resta centroide a centroide
+        points.partialDistances(row, centroids, sum, count);
+        for(int k = 0; k < centroids.nRows; k++){
+            double d = points.finishDistance(row, centroids, k, sum[k], (int) count[k], minDist);
+            if(d < minDist){
+                minDist = d;
+                closestCluster = k;
+            }
+        }
+        return closestCluster;
+    }
+    /**
+     * Generates the affinity groups for the answers starting from Centroids, with one iteration.
+     * @param centroids The centroids to initialize clustering
+     * @return Returns KmeansRes of the execution
+     * @throws Exception
+     */
+    private  KmeansRes assignClusters(KmeansData centroids) throws Exception{
+        setK(centroids.nRows);
+        //asigna cada answer al cluster del centroide mes proper
+        int[] assignment = new int[data.nRows];
+        assign(centroids, assignment, null, null);
+        return new KmeansRes(assignment, centroids);
+    }
+    /**
+     * From a KmeansRes create the affinity groups to store, sets the representative as the point closest to centroid
+     * (the medoid itself for k-medoids clusterings),
+     * For each answer stores its responderUUID, the representative first and then the rest in row order
+     * @param kr
+     * @return List of affinityGroup
+     */
+    private ArrayList<AffinityGroup> generateAffinityGroups(KmeansRes kr){
+        int[] rep = kr.medoids != null ? kr.medoids : bestPoints(kr.assignment, kr.centroids);
+        ArrayList<ArrayList<Integer>> members = new ArrayList<>(kr.centroids.nRows);
+        for(int k = 0; k < kr.centroids.nRows; k++){
+            ArrayList<Integer> m = new ArrayList<>();
+            if(rep[k] >= 0) m.add(data.responderUUID[rep[k]]);
+            members.add(m);
+        }
+        for(int row = 0; row < kr.assignment.length; row++){
+            int k = kr.assignment[row];
+            if(row != rep[k]) members.get(k).add(data.responderUUID[row]);
+        }
+        ArrayList<AffinityGroup> ret = new ArrayList<>();
+        for(int k = 0; k < kr.centroids.nRows; k++){
+            if(rep[k] < 0) continue; //skip empty clusters
+            ret.add(new AffinityGroup(data.responderUUID[rep[k]], members.get(k)));
+        }
+        return ret;
+    }
+
+    /**
+     * Restores a stored clustering (the affinity groups of a form) as the last clustering, so it can be evaluated without running kmeans.
+     * Every group is a cluster, with its centroid rebuilt from the stored centroid model (the mean of its members if the model
+     * does not describe the groups). Only the answers of group members are used, and they are cleaned and encoded again only
+     * if they are not the answers this instance last cleaned
+     * @param f The form of the groups
+     * @param ans Answers of the form
+     * @param groups Affinity groups of the form
+     * @param model Stored centroid model of the groups, null if there is none
+     * @throws IllegalArgumentException if no answer belongs to a group
+     */
+    void restoreClustering(Form f, ArrayList<Answer> ans, ArrayList<AffinityGroup> groups, ClusteringModel model){
+        updateData(f);
+        HashMap<Integer,Integer> groupOf = new HashMap<>();
+        for(int g = 0; g < groups.size(); g++){
+            for(Integer member : groups.get(g).getMemberIDs()) groupOf.put(member, g);
+        }
+        ArrayList<Answer> members = new ArrayList<>();
+        for(Answer a : ans){
+            if(groupOf.containsKey(a.getResponderUUID())) members.add(a);
+        }
+        Question.OpenDistance[] openModes = KmeansData.openModes(questions, openDistance);
+        if(data == null || answersFingerprint == null || answersFingerprint != BisectingTree.fingerprint(members)
+                || data.nQuestions != nQuestions || !Arrays.equals(data.openModes, openModes)){
+            setAnswers(members);
+        }
+        setK(groups.size());
+        int[] assignment = new int[data.nRows];
+        ClusterStats[] stats = new ClusterStats[K];
+        for(int k = 0; k < K; k++) stats[k] = new ClusterStats(data);
+        for(int row = 0; row < data.nRows; row++){
+            assignment[row] = groupOf.get(data.responderUUID[row]);
+            stats[assignment[row]].add(row);
+        }
+        KmeansData centroids = data.emptyLike(K);
+        boolean stored = model != null && model.describes(data, stats);
+        for(int k = 0; k < K; k++){
+            if(stored) ClusterStats.fromModel(data, model.getCluster(k)).writeCentroid(centroids, k);
+            else if(stats[k].size() > 0) stats[k].writeCentroid(centroids, k);
+        }
+        KmeansRes kr = new KmeansRes(assignment, centroids);
+        kr.iterations = 0;
+        kr.wcss = wcss(kr);
+        kr.restartWCSS = new double[]{kr.wcss};
+        kr.restartIterations = new int[]{0};
+        this.lastClustering = kr;
+    }
+
+    /**
+     * Builds the centroid model of the last clustering, one cluster per affinity group (empty clusters are skipped, as in the groups)
+     * @param k K requested for the clustering, null if it was chosen by the elbow method
+     * @return ClusteringModel of the last clustering
+     * @throws IllegalStateException if no clustering has been executed
+     */
+    ClusteringModel buildModel(Integer k){
+        if(lastClustering == null && streamedModel != null) return streamedModel; //built while the stream was labelled
+        if(lastClustering == null) throw new IllegalStateException("Kmeans has not been executed");
+        ClusterStats[] stats = newStats(1, lastClustering.centroids.nRows)[0];
+        for(int row = 0; row < data.nRows; row++) stats[lastClustering.assignment[row]].add(row);
+        ArrayList<ClusteringModel.Cluster> clusters = new ArrayList<>();
+        for(ClusterStats cs : stats){
+            if(cs.size() > 0) clusters.add(cs.toModel());
+        }
+        return new ClusteringModel(k, lastAlgorithm, batchSize, nQuestions, clusters, data, lastClustering.partial);
+    }
+
+    /**
+     * The Silhouette Score measures how well each data point fits within its assigned cluster compared to other clusters.
+     * Greater is better
+     * @return double in the range [-1.0,1.0]
+     */
+    public double evaluateClusteringSilhouete(){
+        return evaluateClusteringSilhouete(SilhouetteMode.EXACT).getScore();
+    }
+
+    /**
+     * Evaluates the silhouette of the last clustering, exactly or approximately
+     * EXACT reads pairwise distances from the distance matrix (computed once per answers if it fits in the budget),
+     * answers are scored in parallel chunks and added up in cluster order
+     * @param mode EXACT, SIMPLIFIED or SAMPLED
+     * @return SilhouetteEvaluation with the score, and its confidence interval when SAMPLED
+     * @throws IllegalStateException if no clustering has been executed
+     */
+    public SilhouetteEvaluation evaluateClusteringSilhouete(SilhouetteMode mode){
+        if(mode == null) throw new IllegalArgumentException("Silhouette mode is null");
+        if(lastClustering == null) throw new IllegalStateException("Kmeans has not been executed");
+        startPool();
+        try{
+            switch (mode) {
+                case SIMPLIFIED:
+                    return simplifiedSilhouette();
+                case SAMPLED:
+                    return sampledSilhouette();
+                default:
+                    return exactSilhouette();
+            }
+        } catch (RuntimeException e){
+            throw e;
+        } catch (Exception e){
+            throw new IllegalStateException("Silhouette evaluation failed", e);
+        } finally {
+            stopPool();
+        }
+    }
+
+    /**
+     * Exact silhouette of the last clustering
+     * @return SilhouetteEvaluation of every answer
+     * @throws Exception if a chunk fails
+     */
+    private SilhouetteEvaluation exactSilhouette() throws Exception{
+        double[] score = new double[data.nRows];
+        int[] assignment = lastClustering.assignment;
+        ArrayList<ArrayList<Integer>> clusters = lastClustering.clusters();
+        buildDistances();
+        runChunks(chunkCount(), chunk -> {
+            int end = Math.min(data.nRows, (chunk + 1) * CHUNK_SIZE);
+            for(int a = chunk * CHUNK_SIZE; a < end; a++) score[a] = silhouette(a, clusters, assignment[a]);
+        });
+        double totalEval = 0.0;
+        for(double sc : score) totalEval += sc;
+        totalEval /= data.nRows;
+        return new SilhouetteEvaluation(SilhouetteMode.EXACT, totalEval, 0.0, data.nRows);
+    }
+
+    /**
+     * Simplified silhouette of the last clustering: the mean distance to the answers of a cluster is replaced by the distance to its centroid
+     * @return SilhouetteEvaluation of every answer
+     * @throws Exception if a chunk fails
+     */
+    private SilhouetteEvaluation simplifiedSilhouette() throws Exception{
+        KmeansData centroids = lastClustering.centroids;
+        double[] score = new double[data.nRows];
+        int[] assignment = lastClustering.assignment;
+        int[] sizes = lastClustering.sizes();
+        runChunks(chunkCount(), chunk -> {
+            int end = Math.min(data.nRows, (chunk + 1) * CHUNK_SIZE);
+            for(int row = chunk * CHUNK_SIZE; row < end; row++){
+                int own = assignment[row];
+                if(sizes[own] <= 1) continue; //coeficient is 0 if one or zero points in cluster
+                double ai = distanceTotal(row, centroids, own);
+                double bi = Double.POSITIVE_INFINITY;
+                for(int k = 0; k < sizes.length; k++){
+                    if(k == own || sizes[k] == 0) continue;
+                    double d = distanceTotal(row, centroids, k);
+                    if(d < bi) bi = d;
+                }
+                double max = Math.max(ai, bi);
+                if(bi != Double.POSITIVE_INFINITY && max > 0.0) score[row] = (bi - ai) / max;
+            }
+        });
+        double totalEval = 0.0;
+        for(double sc : score) totalEval += sc;
+        totalEval /= data.nRows;
+        return new SilhouetteEvaluation(SilhouetteMode.SIMPLIFIED, totalEval, 0.0, data.nRows);
+    }
+
+    /**
+     * Silhouette of the last clustering estimated from a sample stratified by cluster.
+     * Every cluster with more than one answer gets a share of silhouetteSampleSize proportional to its size (at least 2),
+     * the sampled answers get their exact silhouette. The estimate weights the mean of every cluster by its size,
+     * and its variance (with finite population correction) gives the 95% confidence interval
+     * @return SilhouetteEvaluation of the sample
+     * @throws Exception if a chunk fails
+     */
+    private SilhouetteEvaluation sampledSilhouette() throws Exception{
+        ArrayList<ArrayList<Integer>> clusters = lastClustering.clusters();
+        int n = data.nRows;
+        int target = Math.min(silhouetteSampleSize, n);
+        Random random = new Random(rng.nextLong());
+        int[] sampleRows = new int[n];
+        int[] sampleCluster = new int[n];
+        int[] start = new int[clusters.size() + 1];
+        int m = 0;
+        for(int k = 0; k < clusters.size(); k++){
+            start[k] = m;
+            ArrayList<Integer> rows = clusters.get(k);
+            if(rows.size() > 1){ //clusters of one answer have silhouette 0, nothing to estimate
+                int share = (int) Math.min(rows.size(), Math.max(2, Math.round((double) target * rows.size() / n)));
+                //Fisher-Yates parcial, sense repeticio
+                int[] pick = new int[rows.size()];
+                for(int i = 0; i < pick.length; i++) pick[i] = rows.get(i);
+                for(int i = 0; i < share; i++){
+                    int j = i + random.nextInt(pick.length - i);
+                    int tmp = pick[i]; pick[i] = pick[j]; pick[j] = tmp;
+                    sampleRows[m] = pick[i];
+                    sampleCluster[m] = k;
+                    m++;
                 }
-                totalEval += (bi - ai) / Math.max(ai, bi);
             }
         }
-        totalEval /= matDades.size();
-        return totalEval;           
+        start[clusters.size()] = m;
+        final int sampled = m;
+        double[] score = new double[sampled];
+        runChunks(chunkCount(sampled), chunk -> {
+            int end = Math.min(sampled, (chunk + 1) * CHUNK_SIZE);
+            for(int s = chunk * CHUNK_SIZE; s < end; s++) score[s] = silhouette(sampleRows[s], clusters, sampleCluster[s]);
+        });
+        double estimate = 0.0, variance = 0.0;
+        for(int k = 0; k < clusters.size(); k++){
+            int mk = start[k + 1] - start[k];
+            if(mk == 0) continue;
+            double nk = clusters.get(k).size();
+            double mean = 0.0;
+            for(int s = start[k]; s < start[k + 1]; s++) mean += score[s];
+            mean /= mk;
+            double s2 = 0.0;
+            for(int s = start[k]; s < start[k + 1]; s++) s2 += (score[s] - mean) * (score[s] - mean);
+            s2 /= (mk - 1);
+            double w = nk / n;
+            estimate += w * mean;
+            variance += w * w * s2 / mk * (1.0 - mk / nk);
+        }
+        return new SilhouetteEvaluation(SilhouetteMode.SAMPLED, estimate, Z_95 * Math.sqrt(variance), sampled);
+    }
+
+    /**
+     * Silhouette coefficient of one answer
+     * @param a row of the answer
+     * @param clusters rows of every cluster
+     * @param own index of the cluster of the answer
+     * @return double in the range [-1.0,1.0], 0 if its cluster has one answer or less
+     */
+    private double silhouette(int a, ArrayList<ArrayList<Integer>> clusters, int own){
+        ArrayList<Integer> clusterAnswers = clusters.get(own);
+        if (clusterAnswers.size() <= 1) return 0.0; //coeficient is 0 if one or zero points in cluster
+        double ai = 0.0; //mean intra-cluster distance
+        for(int b : clusterAnswers){
+            if(a != b) ai += pairDistance(a, b);
+        }
+        ai /= (clusterAnswers.size() - 1);
+        double bi = Double.POSITIVE_INFINITY; //minimum mean between i an any other cluster
+        for(int k = 0; k < clusters.size(); k++){
+            ArrayList<Integer> otherClusterAnswers = clusters.get(k);
+            if(k == own || otherClusterAnswers.size() <= 1) continue; //skip empty clusters (or only one)
+            double meanDist = 0.0;
+            for(int b : otherClusterAnswers) meanDist += pairDistance(a, b);
+            meanDist /= otherClusterAnswers.size();
+            if(meanDist < bi) bi = meanDist;
+        }
+        return (bi - ai) / Math.max(ai, bi);
     }
     
     
@@ -473,15 +2470,19 @@ public class Kmeans{
      * @return
      */
     public double evaluateClusteringWCSS(){
-        int i = 0;
+        return wcss(lastClustering);
+    }
+
+    /**
+     * Within-Cluster Sum of Squares of a kmeans execution
+     * @param kr The execution
+     * @return double WCSS
+     */
+    private double wcss(KmeansRes kr){
         double total = 0;
-        for(ArrayList<Answer> clusterAnswers : lastClustering.clusters){
-            Answer c = lastClustering.centroids.get(i);
-            for(Answer a : clusterAnswers){
-                double d = distanceTotal(a, c);
-                total += d * d;
-            }
-            i++;
+        for(int row = 0; row < kr.assignment.length; row++){
+            double d = distanceTotal(row, kr.centroids, kr.assignment[row]);
+            total += d * d;
         }
         return total;
     }    
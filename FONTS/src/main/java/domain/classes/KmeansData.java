@@ -0,0 +1,838 @@
+package domain.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Primitive columnar encoding of the cleaned answers of a form, built once per clustering run.
+ * Every question is stored as a column indexed by row, so the K-means engine works on arrays
+ * instead of boxed QuestionAnswer objects:
+ * NUMERIC answers are normalized doubles, ordered MULTIPLE_CHOICE answers are choice ranks,
+ * unordered MULTIPLE_CHOICE answers are bitsets of choice indexes and OPEN_ENDED answers are
+ * string ids plus the token ids of their words. OPEN_ENDED questions compared with TFIDF_COSINE
+ * also store a sparse TF-IDF vector of their words, weighted over the answers of the form.
+ * Centroids use the same layout (one row per centroid) and share the schema of the data they come from.
+ */
+final class KmeansData {
+    /**
+     * Sentinel for a missing NUMERIC answer
+     */
+    static final double MISSING_NUMERIC = Double.NaN;
+    /**
+     * Sentinel for a missing ordinal or open ended answer
+     */
+    static final int MISSING = -1;
+    /**
+     * Open ended answer kept as text instead of a dictionary id (see streamingLike)
+     */
+    static final int TEXT = -2;
+    /**
+     * Kernel of the NUMERIC and ordered MULTIPLE_CHOICE part of the distances, vectorized if the JVM allows it
+     */
+    static final DistanceKernel KERNEL = DistanceKernel.load();
+
+    /**
+     * Attributes
+     * nRows: Number of encoded rows
+     * nQuestions: Number of questions (columns)
+     * types: Question type of every column
+     * ordered: True if the column is an ordered MULTIPLE_CHOICE question
+     * nChoices: Number of choices of every MULTIPLE_CHOICE column
+     * rankOfChoice: For every choice (original index) its rank among the sorted choices
+     * choiceOfRank: For every rank among the sorted choices its original index
+     * ordinalDistance: Distance between every pair of ranks of an ordered column, flattened [rank*nChoices + rank]
+     * choiceIndex: Map from choice text to original index, per column
+     * dictionary: Interned strings (whole open ended answers and their words), the id is the position
+     * dictionaryIds: Map from string to its id in the dictionary
+     * openModes: How every OPEN_ENDED column is compared, null for the other columns
+     * documents: Number of answered rows of every TFIDF_COSINE column, the IDF is computed over them
+     * documentFreq: For every word (dictionary id) the rows of a TFIDF_COSINE column that contain it
+     * idf: Inverse document frequency of every word (dictionary id) of a TFIDF_COSINE column
+     * openCache: Memo of the LEVENSHTEIN distances between dictionary ids, closed unless a run opens it
+     */
+    final int nRows;
+    final int nQuestions;
+    final Question.QuestionType[] types;
+    final boolean[] ordered;
+    final int[] nChoices;
+    final int[][] rankOfChoice;
+    final int[][] choiceOfRank;
+    final double[][] ordinalDistance;
+    final ArrayList<HashMap<String,Integer>> choiceIndex;
+    final ArrayList<String> dictionary;
+    final HashMap<String,Integer> dictionaryIds;
+    final Question.OpenDistance[] openModes;
+    final int[] documents;
+    final int[][] documentFreq;
+    final double[][] idf;
+    final OpenDistanceCache openCache;
+
+    /**
+     * Columns, indexed [question][row]
+     * numeric: Answer divided by the question range, MISSING_NUMERIC if unanswered
+     * ordinal: Rank of the choice among the sorted choices, MISSING if unanswered
+     * choiceSets: Bitset of the original indexes of the selected choices (bit i of word i/64), null if unanswered
+     * openIds: Dictionary id of the whole open ended answer, MISSING if unanswered, TEXT if it is kept in openText
+     * openText: Whole open ended answer of the rows that keep it out of the dictionary, null unless the encoding is streamingLike
+     * tokens: Dictionary ids of the words of the open ended answer, null if unanswered
+     * termIds, termWeights, termNorm: Sparse TF-IDF vector of a TFIDF_COSINE answer, sorted dictionary ids,
+     * their weights and its euclidean norm, null if unanswered
+     * responderUUID: Responder of every row, indexed [row]
+     */
+    final double[][] numeric;
+    final int[][] ordinal;
+    final long[][][] choiceSets;
+    final int[][] openIds;
+    final String[][] openText;
+    final int[][][] tokens;
+    final int[][][] termIds;
+    final double[][][] termWeights;
+    final double[][] termNorm;
+    final int[] responderUUID;
+
+    /**
+     * Encodes the cleaned answers of a form, every OPEN_ENDED question compared with LEVENSHTEIN
+     * @param questions The questions of the form
+     * @param cleanAnswers The cleaned answers, open ended answers already reduced to meaningful words
+     * @throws IllegalStateException if a NUMERIC question has range 0
+     */
+    KmeansData(ArrayList<Question> questions, ArrayList<Answer> cleanAnswers){
+        this(questions, cleanAnswers, null);
+    }
+
+    /**
+     * Encodes the cleaned answers of a form
+     * @param questions The questions of the form
+     * @param cleanAnswers The cleaned answers, open ended answers already reduced to meaningful words
+     * @param modes How every column is compared if it is OPEN_ENDED (see openModes), null for LEVENSHTEIN everywhere
+     * @throws IllegalStateException if a NUMERIC question has range 0
+     */
+    KmeansData(ArrayList<Question> questions, ArrayList<Answer> cleanAnswers, Question.OpenDistance[] modes){
+        this.nRows = cleanAnswers.size();
+        this.nQuestions = questions.size();
+        this.types = new Question.QuestionType[nQuestions];
+        this.ordered = new boolean[nQuestions];
+        this.nChoices = new int[nQuestions];
+        this.rankOfChoice = new int[nQuestions][];
+        this.choiceOfRank = new int[nQuestions][];
+        this.ordinalDistance = new double[nQuestions][];
+        this.choiceIndex = new ArrayList<>(nQuestions);
+        this.dictionary = new ArrayList<>();
+        this.dictionaryIds = new HashMap<>();
+        this.openModes = new Question.OpenDistance[nQuestions];
+        this.documents = new int[nQuestions];
+        this.documentFreq = new int[nQuestions][];
+        this.idf = new double[nQuestions][];
+        this.openCache = new OpenDistanceCache();
+        this.numeric = new double[nQuestions][];
+        this.ordinal = new int[nQuestions][];
+        this.choiceSets = new long[nQuestions][][];
+        this.openIds = new int[nQuestions][];
+        this.openText = null;
+        this.tokens = new int[nQuestions][][];
+        this.termIds = new int[nQuestions][][];
+        this.termWeights = new double[nQuestions][][];
+        this.termNorm = new double[nQuestions][];
+        this.responderUUID = new int[nRows];
+
+        for(int q = 0; q < nQuestions; q++){
+            Question question = questions.get(q);
+            types[q] = question.getQuestionType();
+            choiceIndex.add(null);
+            if(types[q] == Question.QuestionType.MULTIPLE_CHOICE) compileChoices(q, question);
+            if(types[q] == Question.QuestionType.OPEN_ENDED){
+                openModes[q] = modes == null || modes[q] == null ? Question.OpenDistance.LEVENSHTEIN : modes[q];
+            }
+            allocateColumn(q, nRows);
+        }
+        for(int row = 0; row < nRows; row++){
+            Answer a = cleanAnswers.get(row);
+            responderUUID[row] = a.getResponderUUID();
+            for(int q = 0; q < nQuestions; q++){
+                encodeCell(q, row, questions.get(q), a);
+            }
+        }
+        for(int q = 0; q < nQuestions; q++){
+            if(isTfIdf(q)) weighTerms(q);
+        }
+    }
+
+    /**
+     * Resolves how every OPEN_ENDED question of a form is compared
+     * @param questions The questions of the form
+     * @param formDefault OpenDistance of the questions that do not set their own
+     * @return Question.OpenDistance[] per column, null for the columns that are not OPEN_ENDED
+     */
+    static Question.OpenDistance[] openModes(ArrayList<Question> questions, Question.OpenDistance formDefault){
+        Question.OpenDistance[] modes = new Question.OpenDistance[questions.size()];
+        for(int q = 0; q < modes.length; q++){
+            Question question = questions.get(q);
+            if(question.getQuestionType() != Question.QuestionType.OPEN_ENDED) continue;
+            modes[q] = question.getOpenDistance() != null ? question.getOpenDistance() : formDefault;
+        }
+        return modes;
+    }
+
+    /**
+     * Creates an empty encoding with the same schema (and dictionary) as another one, used for centroids
+     * @param schema The encoding whose schema is shared
+     * @param rows Number of rows to allocate
+     * @param internAnswers False to keep the whole open ended answers as text, out of the dictionary
+     */
+    private KmeansData(KmeansData schema, int rows, boolean internAnswers){
+        this.nRows = rows;
+        this.nQuestions = schema.nQuestions;
+        this.types = schema.types;
+        this.ordered = schema.ordered;
+        this.nChoices = schema.nChoices;
+        this.rankOfChoice = schema.rankOfChoice;
+        this.choiceOfRank = schema.choiceOfRank;
+        this.ordinalDistance = schema.ordinalDistance;
+        this.choiceIndex = schema.choiceIndex;
+        this.dictionary = schema.dictionary;
+        this.dictionaryIds = schema.dictionaryIds;
+        this.openModes = schema.openModes;
+        this.documents = schema.documents;
+        this.documentFreq = schema.documentFreq;
+        this.idf = schema.idf;
+        this.openCache = schema.openCache;
+        this.numeric = new double[nQuestions][];
+        this.ordinal = new int[nQuestions][];
+        this.choiceSets = new long[nQuestions][][];
+        this.openIds = new int[nQuestions][];
+        this.openText = internAnswers ? null : new String[nQuestions][];
+        this.tokens = new int[nQuestions][][];
+        this.termIds = new int[nQuestions][][];
+        this.termWeights = new double[nQuestions][][];
+        this.termNorm = new double[nQuestions][];
+        this.responderUUID = new int[rows];
+        for(int q = 0; q < nQuestions; q++) allocateColumn(q, rows);
+    }
+
+    /**
+     * Returns an empty encoding sharing this schema, every cell is missing
+     * @param rows Number of rows
+     * @return KmeansData with the given number of rows
+     */
+    KmeansData emptyLike(int rows){
+        return new KmeansData(this, rows, true);
+    }
+
+    /**
+     * Returns an empty encoding sharing this schema that answers are streamed through: only the words of the open ended
+     * answers go to the dictionary, a whole answer that is not already there is kept as text (and its distances are not
+     * cached), so the dictionary only grows with the words the summaries of the stream keep
+     * @param rows Number of rows
+     * @return KmeansData with the given number of rows
+     */
+    KmeansData streamingLike(int rows){
+        return new KmeansData(this, rows, false);
+    }
+
+    /**
+     * Builds the choice lookups of a MULTIPLE_CHOICE column
+     * @param q Column index
+     * @param question The question of the column
+     */
+    private void compileChoices(int q, Question question){
+        ArrayList<String> choices = question.getChoices();
+        int n = choices == null ? 0 : choices.size();
+        nChoices[q] = n;
+        ordered[q] = Boolean.TRUE.equals(question.isOrder());
+        HashMap<String,Integer> index = new HashMap<>();
+        for(int i = 0; i < n; i++) index.putIfAbsent(choices.get(i), i);
+        choiceIndex.set(q, index);
+
+        //ranks follow the alphabetical order of the choices
+        Integer[] byRank = new Integer[n];
+        for(int i = 0; i < n; i++) byRank[i] = i;
+        Arrays.sort(byRank, (x, y) -> choices.get(x).compareTo(choices.get(y)));
+        rankOfChoice[q] = new int[n];
+        choiceOfRank[q] = new int[n];
+        for(int r = 0; r < n; r++){
+            choiceOfRank[q][r] = byRank[r];
+            rankOfChoice[q][byRank[r]] = r;
+        }
+        if(ordered[q]){
+            ordinalDistance[q] = new double[n * n];
+            for(int a = 0; a < n; a++){
+                for(int c = 0; c < n; c++) ordinalDistance[q][a * n + c] = KmeansHelper.distanceOrdinal(a, c, n);
+            }
+        }
+    }
+
+    /**
+     * Allocates the column of a question filled with the missing sentinel
+     * @param q Column index
+     * @param rows Number of rows
+     */
+    private void allocateColumn(int q, int rows){
+        switch (types[q]) {
+            case NUMERIC:
+                numeric[q] = new double[rows];
+                Arrays.fill(numeric[q], MISSING_NUMERIC);
+                break;
+            case MULTIPLE_CHOICE:
+                if(ordered[q]){
+                    ordinal[q] = new int[rows];
+                    Arrays.fill(ordinal[q], MISSING);
+                }
+                else choiceSets[q] = new long[rows][];
+                break;
+            case OPEN_ENDED:
+                openIds[q] = new int[rows];
+                Arrays.fill(openIds[q], MISSING);
+                if(openText != null) openText[q] = new String[rows];
+                tokens[q] = new int[rows][];
+                if(isTfIdf(q)){
+                    termIds[q] = new int[rows][];
+                    termWeights[q] = new double[rows][];
+                    termNorm[q] = new double[rows];
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Encodes a cleaned answer into a row, replacing what the row held. Lets answers be streamed one at a time
+     * through a small encoding that shares the dictionary (and document frequencies) of its schema
+     * @param row Row index
+     * @param questions The questions of the form
+     * @param cleanAnswer The cleaned answer
+     * @throws IllegalStateException if a NUMERIC question has range 0
+     */
+    void encodeRow(int row, ArrayList<Question> questions, Answer cleanAnswer){
+        responderUUID[row] = cleanAnswer.getResponderUUID();
+        for(int q = 0; q < nQuestions; q++){
+            switch (types[q]) {
+                case NUMERIC:
+                    numeric[q][row] = MISSING_NUMERIC;
+                    break;
+                case MULTIPLE_CHOICE:
+                    if(ordered[q]) ordinal[q][row] = MISSING;
+                    else choiceSets[q][row] = null;
+                    break;
+                case OPEN_ENDED:
+                    openIds[q][row] = MISSING;
+                    if(openText != null) openText[q][row] = null;
+                    tokens[q][row] = null;
+                    break;
+                default:
+                    break;
+            }
+            encodeCell(q, row, questions.get(q), cleanAnswer);
+            if(isTfIdf(q)){
+                if(tokens[q][row] != null) setTerms(q, row, tokens[q][row]);
+                else storeTerms(q, row, null, null);
+            }
+        }
+    }
+
+    /**
+     * Encodes one answer cell, answers that do not match the question type are left missing
+     * @param q Column index
+     * @param row Row index
+     * @param question The question of the column
+     * @param a The cleaned answer
+     */
+    private void encodeCell(int q, int row, Question question, Answer a){
+        if(q >= a.getAnswer().size()) return;
+        QuestionAnswer qa = a.getQuestionAnswer(q);
+        if(qa == null || qa.getQuestionType() != types[q] || qa.isUnAnswered()) return;
+        switch (types[q]) {
+            case NUMERIC:
+                int range = question.getRange();
+                if (range == 0) {
+                    throw new IllegalStateException(
+                        "Numeric question with range 0 at index " + q
+                    );
+                }
+                numeric[q][row] = (double) qa.getAnswerInteger() / range;
+                break;
+            case MULTIPLE_CHOICE:
+                ArrayList<String> selected = qa.getAnswerMultiple();
+                if(ordered[q]){
+                    Integer idx = selected.isEmpty() ? null : choiceIndex.get(q).get(selected.get(0));
+                    if(idx != null) ordinal[q][row] = rankOfChoice[q][idx];
+                }
+                else choiceSets[q][row] = encodeChoiceSet(q, selected);
+                break;
+            case OPEN_ENDED:
+                String s = qa.getAnswerString();
+                if(s.isEmpty()) return; //no meaningful words, same as unanswered
+                if(openText == null){
+                    openIds[q][row] = intern(s);
+                    tokens[q][row] = tokenize(s);
+                }
+                else{
+                    tokens[q][row] = tokenize(s); //una resposta d'una paraula es troba al diccionari
+                    Integer id = dictionaryIds.get(s);
+                    openIds[q][row] = id != null ? id : TEXT;
+                    openText[q][row] = id != null ? null : s;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Converts a list of selected choices into its bitset of choice indexes, unknown choices are ignored
+     * @param q Column index
+     * @param selected Selected choices
+     * @return long[] bitset of the choice indexes
+     */
+    long[] encodeChoiceSet(int q, ArrayList<String> selected){
+        long[] set = new long[bitsetWords(nChoices[q])];
+        for(String s : selected){
+            Integer idx = choiceIndex.get(q).get(s);
+            if(idx != null) set[idx >>> 6] |= 1L << (idx & 63);
+        }
+        return set;
+    }
+
+    /**
+     * Number of words of the bitset of a question
+     * @param nChoices Number of choices of the question
+     * @return int words of 64 bits
+     */
+    static int bitsetWords(int nChoices){
+        return (nChoices + 63) >>> 6;
+    }
+
+    /**
+     * Splits an open ended answer into the dictionary ids of its words
+     * @param s The cleaned answer
+     * @return int[] token ids
+     */
+    int[] tokenize(String s){
+        String[] words = s.split(" ");
+        int[] ids = new int[words.length];
+        int n = 0;
+        for(String w : words){
+            if(!w.isEmpty()) ids[n++] = intern(w);
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * Returns the id of a string in the dictionary, adding it if needed
+     * @param s The string
+     * @return int id
+     */
+    int intern(String s){
+        Integer id = dictionaryIds.get(s);
+        if(id == null){
+            id = dictionary.size();
+            dictionary.add(s);
+            dictionaryIds.put(s, id);
+        }
+        return id;
+    }
+
+    /**
+     * Tells if a column is an OPEN_ENDED question compared with TFIDF_COSINE
+     * @param q Column index
+     * @return true if the column stores TF-IDF vectors
+     */
+    boolean isTfIdf(int q){
+        return openModes[q] == Question.OpenDistance.TFIDF_COSINE;
+    }
+
+    /**
+     * Counts the document frequency of every word of a TFIDF_COSINE column, computes its IDF and weighs every answer
+     * @param q Column index
+     */
+    private void weighTerms(int q){
+        int[] df = new int[dictionary.size()];
+        int n = 0;
+        for(int row = 0; row < nRows; row++){
+            int[] t = tokens[q][row];
+            if(t == null) continue;
+            n++;
+            int[] sorted = t.clone();
+            Arrays.sort(sorted);
+            for(int i = 0; i < sorted.length; i++){
+                if(i == 0 || sorted[i] != sorted[i - 1]) df[sorted[i]]++;
+            }
+        }
+        documents[q] = n;
+        documentFreq[q] = df;
+        computeIdf(q);
+    }
+
+    /**
+     * Replaces the document frequencies of a TFIDF_COSINE column, used to weigh new answers as the answers of a stored clustering
+     * @param q Column index
+     * @param df Rows that contained every word
+     * @param n Answered rows the frequencies were counted over
+     */
+    void setDocumentFrequencies(int q, HashMap<String,Integer> df, int n){
+        for(String w : new TreeSet<>(df.keySet())) intern(w);
+        int[] freq = new int[dictionary.size()];
+        for(HashMap.Entry<String,Integer> e : df.entrySet()) freq[dictionaryIds.get(e.getKey())] = e.getValue();
+        documents[q] = n;
+        documentFreq[q] = freq;
+        computeIdf(q);
+    }
+
+    /**
+     * Computes the smoothed IDF of a TFIDF_COSINE column, ln((1+n)/(1+df))+1, and weighs its answers again
+     * @param q Column index
+     */
+    private void computeIdf(int q){
+        int[] df = documentFreq[q];
+        idf[q] = new double[df.length];
+        for(int w = 0; w < df.length; w++) idf[q][w] = Math.log((1.0 + documents[q]) / (1.0 + df[w])) + 1.0;
+        for(int row = 0; row < nRows; row++){
+            if(tokens[q][row] != null) setTerms(q, row, tokens[q][row]);
+        }
+    }
+
+    /**
+     * IDF of a word in a TFIDF_COSINE column, words unseen when it was computed get the largest one
+     * @param q Column index
+     * @param w Dictionary id of the word
+     * @return double IDF of the word
+     */
+    double idf(int q, int w){
+        if(w < idf[q].length) return idf[q][w];
+        return Math.log(1.0 + documents[q]) + 1.0;
+    }
+
+    /**
+     * Stores the TF-IDF vector of a row from the words of an answer, repeated words add up their term frequency
+     * @param q Column index
+     * @param row Row index
+     * @param words Dictionary ids of the words
+     */
+    void setTerms(int q, int row, int[] words){
+        int[] sorted = words.clone();
+        Arrays.sort(sorted);
+        int[] ids = new int[sorted.length];
+        double[] weights = new double[sorted.length];
+        int n = 0;
+        for(int i = 0; i < sorted.length; i++){
+            if(n > 0 && ids[n - 1] == sorted[i]) weights[n - 1] += idf(q, sorted[i]);
+            else{
+                ids[n] = sorted[i];
+                weights[n++] = idf(q, sorted[i]);
+            }
+        }
+        storeTerms(q, row, Arrays.copyOf(ids, n), Arrays.copyOf(weights, n));
+    }
+
+    /**
+     * Stores the TF-IDF vector of a centroid from the word frequencies of its cluster, the sum of the vectors of its answers
+     * (cosine does not depend on the length, so it compares as their mean)
+     * @param q Column index
+     * @param row Row of the centroid
+     * @param freq Times every word (dictionary id) appears in the cluster
+     */
+    void setTerms(int q, int row, HashMap<Integer,Integer> freq){
+        if(freq.isEmpty()){
+            storeTerms(q, row, null, null);
+            return;
+        }
+        int[] ids = new int[freq.size()];
+        int n = 0;
+        for(int w : freq.keySet()) ids[n++] = w;
+        Arrays.sort(ids);
+        double[] weights = new double[n];
+        for(int i = 0; i < n; i++) weights[i] = freq.get(ids[i]) * idf(q, ids[i]);
+        storeTerms(q, row, ids, weights);
+    }
+
+    /**
+     * Stores a TF-IDF vector already weighed, used to restore a stored centroid
+     * @param q Column index
+     * @param row Row of the centroid
+     * @param weights Weight of every word (dictionary id), empty if missing
+     */
+    void setTermWeights(int q, int row, HashMap<Integer,Double> weights){
+        if(weights.isEmpty()){
+            storeTerms(q, row, null, null);
+            return;
+        }
+        int[] ids = new int[weights.size()];
+        int n = 0;
+        for(int w : weights.keySet()) ids[n++] = w;
+        Arrays.sort(ids);
+        double[] w = new double[n];
+        for(int i = 0; i < n; i++) w[i] = weights.get(ids[i]);
+        storeTerms(q, row, ids, w);
+    }
+
+    /**
+     * Stores a sparse vector and its norm
+     * @param q Column index
+     * @param row Row index
+     * @param ids Sorted dictionary ids, null if missing
+     * @param weights Weight of every id
+     */
+    private void storeTerms(int q, int row, int[] ids, double[] weights){
+        termIds[q][row] = ids;
+        termWeights[q][row] = weights;
+        double norm = 0.0;
+        if(weights != null) for(double w : weights) norm += w * w;
+        termNorm[q][row] = Math.sqrt(norm);
+    }
+
+    /**
+     * Copies one cell from another encoding with the same schema
+     * @param row Destination row
+     * @param q Column index
+     * @param src Source encoding
+     * @param srcRow Source row
+     */
+    void copyCell(int row, int q, KmeansData src, int srcRow){
+        switch (types[q]) {
+            case NUMERIC:
+                numeric[q][row] = src.numeric[q][srcRow];
+                break;
+            case MULTIPLE_CHOICE:
+                if(ordered[q]) ordinal[q][row] = src.ordinal[q][srcRow];
+                else choiceSets[q][row] = src.choiceSets[q][srcRow];
+                break;
+            case OPEN_ENDED:
+                int id = src.openIds[q][srcRow];
+                if(id == TEXT && openText == null) id = intern(src.openText[q][srcRow]);
+                openIds[q][row] = id;
+                if(openText != null) openText[q][row] = id == TEXT ? src.openText[q][srcRow] : null;
+                tokens[q][row] = src.tokens[q][srcRow];
+                if(isTfIdf(q)){
+                    termIds[q][row] = src.termIds[q][srcRow];
+                    termWeights[q][row] = src.termWeights[q][srcRow];
+                    termNorm[q][row] = src.termNorm[q][srcRow];
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Copies a whole row from another encoding with the same schema
+     * @param row Destination row
+     * @param src Source encoding
+     * @param srcRow Source row
+     */
+    void copyRow(int row, KmeansData src, int srcRow){
+        for(int q = 0; q < nQuestions; q++) copyCell(row, q, src, srcRow);
+        responderUUID[row] = src.responderUUID[srcRow];
+    }
+
+    /**
+     * Calculates the total distance between a row of this encoding and a row of another one across all questions,
+     * unanswered questions on either side are not counted.
+     * NUMERIC and ordered MULTIPLE_CHOICE questions are added first (see partialDistances), then the rest in question order
+     * @param i Row of this encoding
+     * @param c Other encoding (usually the centroids)
+     * @param j Row of the other encoding
+     * @return double average distance normalized between 0 and 1
+     */
+    double distance(int i, KmeansData c, int j){
+        return distance(i, c, j, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Calculates the total distance between a row of this encoding and a row of another one, when only distances
+     * under a limit matter (the closest centroid search). The cheap questions are measured first, and every LEVENSHTEIN
+     * question only gets the budget they leave, so the edit distance can stop early
+     * @param i Row of this encoding
+     * @param c Other encoding (usually the centroids)
+     * @param j Row of the other encoding
+     * @param limit Distance to beat
+     * @return double the same distance as distance(i, c, j) if it is at most limit, Double.POSITIVE_INFINITY otherwise
+     */
+    double distance(int i, KmeansData c, int j, double limit){
+        double sum = 0.0;
+        int counted = 0;
+        for(int q = 0; q < nQuestions; q++){
+            if(!isKernelColumn(q)) continue;
+            double dist = cellDistance(q, i, c, j);
+            if(dist >= 0.0){
+                sum += dist;
+                counted++;
+            }
+        }
+        return finishDistance(i, c, j, sum, counted, limit);
+    }
+
+    /**
+     * Computes the NUMERIC and ordered MULTIPLE_CHOICE part of the distance between a row and every row of another encoding,
+     * with the distance kernel of the JVM (SIMD lanes when the Vector API is available)
+     * @param i Row of this encoding
+     * @param c Other encoding (usually the centroids)
+     * @param sum Output, sum of the distances of the counted questions, per row of c
+     * @param count Output, number of counted questions, per row of c (whole numbers)
+     */
+    void partialDistances(int i, KmeansData c, double[] sum, double[] count){
+        KERNEL.partialDistances(this, i, c, sum, count);
+    }
+
+    /**
+     * Cheap proxy of the distance between a row and every row of another encoding: the average over the NUMERIC and
+     * MULTIPLE_CHOICE questions only (the distance kernel plus the unordered choice bitsets), OPEN_ENDED questions are skipped
+     * @param i Row of this encoding
+     * @param c Other encoding
+     * @param proxy Output, proxy distance normalized between 0 and 1 per row of c, 0 if no question was counted
+     * @param count Scratch buffer, one per row of c
+     */
+    void proxyDistances(int i, KmeansData c, double[] proxy, double[] count){
+        partialDistances(i, c, proxy, count);
+        for(int q = 0; q < nQuestions; q++){
+            if(types[q] != Question.QuestionType.MULTIPLE_CHOICE || ordered[q]) continue;
+            long[] a = choiceSets[q][i];
+            if(a == null) continue;
+            long[][] col = c.choiceSets[q];
+            for(int j = 0; j < c.nRows; j++){
+                double dist = KmeansHelper.distanceChoiceSets(a, col[j]);
+                if(dist >= 0.0){
+                    proxy[j] += dist;
+                    count[j]++;
+                }
+            }
+        }
+        for(int j = 0; j < c.nRows; j++) proxy[j] = count[j] == 0.0 ? 0.0 : proxy[j] / count[j];
+    }
+
+    /**
+     * Completes a distance from its NUMERIC and ordered MULTIPLE_CHOICE part, adding the other questions in question order
+     * @param i Row of this encoding
+     * @param c Other encoding (usually the centroids)
+     * @param j Row of the other encoding
+     * @param partialSum Sum of the distances of the NUMERIC and ordered MULTIPLE_CHOICE questions counted
+     * @param partialCount Number of those questions counted
+     * @param limit Distance to beat, Double.POSITIVE_INFINITY for the exact distance
+     * @return double the same distance as distance(i, c, j) if it is at most limit, Double.POSITIVE_INFINITY otherwise
+     */
+    double finishDistance(int i, KmeansData c, int j, double partialSum, int partialCount, double limit){
+        double total = partialSum;
+        int questionCounted = partialCount;
+        boolean edits = false;
+        for(int q = 0; q < nQuestions; q++){
+            if(isKernelColumn(q)) continue;
+            if(isEditColumn(q)){
+                if(openIds[q][i] != MISSING && c.openIds[q][j] != MISSING){
+                    questionCounted++;
+                    edits = true;
+                }
+                continue;
+            }
+            double dist = cellDistance(q, i, c, j);
+            if(dist >= 0.0){
+                total += dist;
+                questionCounted++;
+            }
+        }
+        if (questionCounted == 0) return 0.5; // If no questions were counted, return a neutral distance
+        if(!edits) return total/questionCounted;
+        //la suma ha de quedar per sota de limit*questionCounted, les altres preguntes obertes sumen com a minim 0
+        double budget = limit * questionCounted - total;
+        total = partialSum;
+        for(int q = 0; q < nQuestions; q++){
+            if(isKernelColumn(q)) continue;
+            double dist;
+            if(isEditColumn(q)){
+                dist = distanceOpen(q, i, c, j, budget);
+                if(dist == Double.POSITIVE_INFINITY) return dist;
+                if(dist > 0.0) budget -= dist;
+            }
+            else dist = cellDistance(q, i, c, j);
+            if(dist >= 0.0) total += dist;
+        }
+        return total/questionCounted;
+    }
+
+    /**
+     * Tells if a column is computed by the distance kernel: NUMERIC and ordered MULTIPLE_CHOICE questions
+     * @param q Column index
+     * @return true if the column is part of partialDistances
+     */
+    boolean isKernelColumn(int q){
+        return types[q] == Question.QuestionType.NUMERIC || (types[q] == Question.QuestionType.MULTIPLE_CHOICE && ordered[q]);
+    }
+
+    /**
+     * Tells if a column is an OPEN_ENDED question compared with LEVENSHTEIN
+     * @param q Column index
+     * @return true if the column uses the edit distance
+     */
+    private boolean isEditColumn(int q){
+        return types[q] == Question.QuestionType.OPEN_ENDED && !isTfIdf(q);
+    }
+
+    /**
+     * Distance of one question between a row of this encoding and a row of another one
+     * @param q Column index
+     * @param i Row of this encoding
+     * @param c Other encoding
+     * @param j Row of the other encoding
+     * @return double distance normalized between 0 and 1, -1 if any is missing
+     */
+    private double cellDistance(int q, int i, KmeansData c, int j){
+        switch (types[q]) {
+            case NUMERIC:
+                return KmeansHelper.distanceNumeric(numeric[q][i], c.numeric[q][j]);
+            case MULTIPLE_CHOICE:
+                if(ordered[q]){
+                    int a = ordinal[q][i], b = c.ordinal[q][j];
+                    if(a == MISSING || b == MISSING) return -1.0;
+                    return ordinalDistance[q][a * nChoices[q] + b];
+                }
+                return KmeansHelper.distanceChoiceSets(choiceSets[q][i], c.choiceSets[q][j]);
+            case OPEN_ENDED:
+                if(isTfIdf(q)) return KmeansHelper.distanceCosine(termIds[q][i], termWeights[q][i], termNorm[q][i], c.termIds[q][j], c.termWeights[q][j], c.termNorm[q][j]);
+                return distanceOpen(q, i, c, j, Double.POSITIVE_INFINITY);
+            default:
+                return -1.0;
+        }
+    }
+
+    /**
+     * Open ended distance between a cell of this encoding and a cell of another one, answers kept as text are compared
+     * directly and the rest through the dictionary ids
+     * @param q Column index
+     * @param i Row of this encoding
+     * @param c Other encoding
+     * @param j Row of the other encoding
+     * @param limit largest distance of interest, Double.POSITIVE_INFINITY for the exact distance
+     * @return double distance normalized between 0 and 1, Double.POSITIVE_INFINITY if it exceeds limit, -1 if any is missing
+     */
+    private double distanceOpen(int q, int i, KmeansData c, int j, double limit){
+        int a = openIds[q][i], b = c.openIds[q][j];
+        if(a != TEXT && b != TEXT) return distanceOpen(a, b, limit);
+        if(a == MISSING || b == MISSING) return -1.0;
+        String sa = a == TEXT ? openText[q][i] : dictionary.get(a);
+        String sb = b == TEXT ? c.openText[q][j] : dictionary.get(b);
+        if(limit == Double.POSITIVE_INFINITY) return KmeansHelper.distanceOpen(sa, sb);
+        return KmeansHelper.distanceOpen(sa, sb, limit);
+    }
+
+    /**
+     * Open ended distance between two dictionary ids, only computed in full when it does not exceed a limit
+     * @param a id of the answer
+     * @param c id of the centroid
+     * @param limit largest distance of interest, Double.POSITIVE_INFINITY for the exact distance
+     * @return double distance normalized between 0 and 1, Double.POSITIVE_INFINITY if it exceeds limit, -1 if any is missing
+     */
+    private double distanceOpen(int a, int c, double limit){
+        if(a == MISSING || c == MISSING) return -1.0;
+        if(a == c) return 0.0;
+        double d = openCache.get(a, c);
+        if(Double.isNaN(d)){
+            if(limit == Double.POSITIVE_INFINITY) d = KmeansHelper.distanceOpen(dictionary.get(a), dictionary.get(c));
+            else{
+                d = KmeansHelper.distanceOpen(dictionary.get(a), dictionary.get(c), limit);
+                if(d == Double.POSITIVE_INFINITY) return d; //no se sap la distancia exacta, no es guarda
+            }
+            openCache.put(a, c, d);
+        }
+        return d;
+    }
+}
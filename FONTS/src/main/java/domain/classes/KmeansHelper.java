@@ -1,6 +1,5 @@
 package domain.classes;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -15,65 +14,105 @@ public class KmeansHelper{
     // Distances 
     //--------------------------------------------------------------------------------
     /**
-     * Numeric distance normalized
-     * @param a answer
-     * @param c centroid
-     * @param range
+     * Open Ended distance normalized (levenshtein)
+     * @param str1
+     * @param str2
      * @return double distance normalized between 0 and 1, -1 if any is null
      */
-    static double  distanceNumeric(Integer a, Integer c,int range){
-        if(a == null || c == null) return -1.0;
-        return (double) Math.abs(a - c) / range;
+    static double distanceOpen(String str1, String str2){
+        if(str1 == null || str2 == null) return -1.0;
+        int steps = levenshteinMyers(str1, str2, Integer.MAX_VALUE);
+        double aux = Math.abs(str1.length()-str2.length());
+        double max = Math.max(str1.length(),str2.length());
+        if(max == aux) return 0.0; //both empty
+        return  (steps - aux ) / ( max - aux);
     }
     /**
-     * Multiple choice ordered distance normalized
-     * @param a answer
-     * @param c  centroid
-     * @param choices
-     * @return double distance normalized between 0 and 1, -1 if any is null
+     * Open Ended distance normalized (levenshtein), only computed in full when it does not exceed a limit.
+     * Used to find the closest centroid, where any distance over the best one found is useless
+     * @param str1
+     * @param str2
+     * @param limit largest distance of interest
+     * @return double the same distance as distanceOpen if it is at most limit, Double.POSITIVE_INFINITY otherwise,
+     * -1 if any is null
      */
-    static double distanceMultipleOrder(ArrayList<String> a,ArrayList<String> c,ArrayList<String> choices){
-        if(a == null || c == null) return -1.0;
-        ArrayList<String> choicesAux = new ArrayList<>(choices);
-        choicesAux.sort(null);
-        int modA = choicesAux.indexOf(a.get(0));
-        int modC = choicesAux.indexOf(c.get(0));
-        return (double) Math.abs(modA - modC) / choices.size();
-
+    static double distanceOpen(String str1, String str2, double limit){
+        if(str1 == null || str2 == null) return -1.0;
+        double aux = Math.abs(str1.length()-str2.length());
+        double max = Math.max(str1.length(),str2.length());
+        if(max == aux) return 0.0; //both empty
+        if(limit < -1e-9) return Double.POSITIVE_INFINITY;
+        //maxim de passos que encara donen una distancia <= limit, amb marge per l'arrodoniment
+        double bound = aux + limit * (max - aux) + 1e-9;
+        int maxSteps = bound >= max ? Integer.MAX_VALUE : (int) bound;
+        int steps = levenshteinBounded(str1, str2, maxSteps);
+        if(steps > maxSteps) return Double.POSITIVE_INFINITY;
+        return  (steps - aux ) / ( max - aux);
     }
     /**
-     * Multiple choice unordered distance normalized (Jaccard)
-     * @param a answer
-     * @param c centroid
-     * @return double distance normalized between 0 and 1, -1 if any is null
+     * Numeric distance between two encoded answers, already divided by the question range
+     * @param a normalized answer
+     * @param c normalized centroid
+     * @return double distance normalized between 0 and 1, -1 if any is missing
+     */
+    static double distanceNumeric(double a, double c){
+        if(Double.isNaN(a) || Double.isNaN(c)) return -1.0;
+        return Math.abs(a - c);
+    }
+    /**
+     * Multiple choice ordered distance between two encoded ranks
+     * @param a rank of the answer among the sorted choices
+     * @param c rank of the centroid among the sorted choices
+     * @param nChoices number of choices of the question
+     * @return double distance normalized between 0 and 1, -1 if any is missing
      */
-    static double distanceMultipleUnOrder(ArrayList<String> a,ArrayList<String> c){
+    static double distanceOrdinal(int a, int c, int nChoices){
+        if(a == KmeansData.MISSING || c == KmeansData.MISSING) return -1.0;
+        return (double) Math.abs(a - c) / nChoices;
+    }
+    /**
+     * Multiple choice unordered distance (Jaccard) between two encoded choice bitsets
+     * @param a choice bitset of the answer
+     * @param c choice bitset of the centroid, the same number of words
+     * @return double distance normalized between 0 and 1, -1 if any is missing
+     */
+    static double distanceChoiceSets(long[] a, long[] c){
         if (a == null || c == null) return -1.0;
         int inter = 0;
-        int union = a.size() + c.size();
-        for(String s : a){
-            if(c.contains(s)){
-                inter++;
-                union--;
-            }
+        int union = 0;
+        for(int w = 0; w < a.length; w++){
+            inter += Long.bitCount(a[w] & c[w]);
+            union += Long.bitCount(a[w] | c[w]);
         }
         if(union == 0) return 0.0; //both empty
         return 1.0 - ((double) inter/union);
-        
     }
     /**
-     * Open Ended distance normalized (levenshtein)
-     * @param str1
-     * @param str2
-     * @return double distance normalized between 0 and 1, -1 if any is null
+     * Cosine distance between two sparse vectors, merging their sorted indexes
+     * @param a sorted indexes of the answer
+     * @param aw weights of the answer, in the order of its indexes
+     * @param aNorm euclidean norm of the answer
+     * @param c sorted indexes of the centroid
+     * @param cw weights of the centroid, in the order of its indexes
+     * @param cNorm euclidean norm of the centroid
+     * @return double distance normalized between 0 and 1 (weights are not negative), -1 if any is missing
      */
-    static double distanceOpen(String str1, String str2){
-        if(str1 == null || str2 == null) return -1.0;
-        int steps = levenshteinDynamic(str1, str2);
-        double aux = Math.abs(str1.length()-str2.length());
-        double max = Math.max(str1.length(),str2.length());
-        if(max == aux) return 0.0; //both empty
-        return  (steps - aux ) / ( max - aux);
+    static double distanceCosine(int[] a, double[] aw, double aNorm, int[] c, double[] cw, double cNorm){
+        if(a == null || c == null) return -1.0;
+        if(aNorm == 0.0 || cNorm == 0.0) return aNorm == cNorm ? 0.0 : 1.0;
+        double dot = 0.0;
+        int i = 0, j = 0;
+        while(i < a.length && j < c.length){
+            if(a[i] == c[j]){
+                dot += aw[i] * cw[j];
+                i++;
+                j++;
+            }
+            else if(a[i] < c[j]) i++;
+            else j++;
+        }
+        double dist = 1.0 - dot / (aNorm * cNorm);
+        return dist < 0.0 ? 0.0 : dist; //rounding of equal vectors
     }
     /**
      * Levenshtein distance dynamic programming
@@ -89,6 +128,7 @@ public class KmeansHelper{
         // Initializing two arrays to store the current and previous row values
         int[] prevRow = new int[n + 1];
         int[] currRow = new int[n + 1];
+        int[] swap;
 
         // Initializing the first row with increasing integers
         for (int j = 0; j <= n; j++) prevRow[j] = j;
@@ -106,124 +146,259 @@ public class KmeansHelper{
                     currRow[j] = 1 + Math.min(currRow[j - 1], Math.min(prevRow[j], prevRow[j - 1]));
                 }
             }
-            // Update prevRow with currRow values
-            prevRow = Arrays.copyOf(currRow, currRow.length);
+            // Swap the rows, currRow is fully written again in the next one
+            swap = prevRow;
+            prevRow = currRow;
+            currRow = swap;
         }
         // Final distance is in bottom right corner
-        return currRow[n];
+        return prevRow[n];
     }
-    //------------------------------------------------------------------------------------
-    // means
-
     /**
-     * Generates the numeric mean of a cluster of answers for a given question index
-     * @param clusterAnswers all answers in the cluster
-     * @param qIdx  question index to create the mean for
-     * @return QuestionAnswer storing the numeric mean
+     * Levenshtein distance bit-parallel (Myers, with the blocks of Hyyro for long strings)
+     * The shorter string is the pattern, its columns of the dynamic programming matrix are encoded as
+     * vertical deltas in 64 bit blocks, and every character of the other string advances all of them at once.
+     * cost O(n*ceil(m/64)), m the shorter length
+     * memory cost O(m)
+     * @param str1 string 1
+     * @param str2 string 2
+     * @param limit the computation stops once the distance is surely greater than limit
+     * @return int min steps to convert str1 into str2 (the same as levenshteinDynamic), any value greater than limit
+     * if it exceeds limit
      */
-    static QuestionAnswer numericMean(ArrayList<Answer> clusterAnswers,int qIdx){
-        int total = 0;
-        int answeredCount = 0;
-        for(Answer a : clusterAnswers){
-            if(!a.getQuestionAnswer(qIdx).isUnAnswered()){
-                total += a.getQuestionAnswer(qIdx).getAnswerInteger();
-                answeredCount++;
-            }
+    static int levenshteinMyers(String str1, String str2, int limit){
+        String p = str1.length() <= str2.length() ? str1 : str2;
+        String t = p == str1 ? str2 : str1;
+        int m = p.length();
+        int n = t.length();
+        if(m == 0) return n;
+        if(m <= 64) return levenshteinMyers64(p, t, limit);
+        int blocks = (m + 63) >>> 6;
+        long last = 1L << ((m - 1) & 63); //bit de la darrera fila del patro, dins del darrer bloc
+        //alfabet del patro ordenat i, per cada caracter, els bits de les posicions on apareix
+        char[] alphabet = p.toCharArray();
+        Arrays.sort(alphabet);
+        int size = 0;
+        for(int i = 0; i < alphabet.length; i++){
+            if(size == 0 || alphabet[size - 1] != alphabet[i]) alphabet[size++] = alphabet[i];
         }
-        if (answeredCount == 0) {
-            return new QuestionAnswer((Integer) null);
+        alphabet = Arrays.copyOf(alphabet, size);
+        long[][] peq = new long[size][blocks];
+        for(int i = 0; i < m; i++) peq[Arrays.binarySearch(alphabet, p.charAt(i))][i >>> 6] |= 1L << (i & 63);
+        long[] zero = new long[blocks];
+        long[] pv = new long[blocks];
+        long[] mv = new long[blocks];
+        Arrays.fill(pv, -1L);
+        int score = m;
+        for(int j = 0; j < n; j++){
+            int c = Arrays.binarySearch(alphabet, t.charAt(j));
+            long[] eqs = c >= 0 ? peq[c] : zero;
+            int hin = 1; //la primera fila de la matriu creix d'un en un
+            for(int b = 0; b < blocks; b++){
+                long eq = eqs[b];
+                long xv = eq | mv[b];
+                if(hin < 0) eq |= 1L;
+                long xh = (((eq & pv[b]) + pv[b]) ^ pv[b]) | eq;
+                long ph = mv[b] | ~(xh | pv[b]);
+                long mh = pv[b] & xh;
+                long high = b == blocks - 1 ? last : Long.MIN_VALUE;
+                int hout = (ph & high) != 0 ? 1 : (mh & high) != 0 ? -1 : 0;
+                ph <<= 1;
+                mh <<= 1;
+                if(hin < 0) mh |= 1L;
+                else if(hin > 0) ph |= 1L;
+                pv[b] = mh | ~(xv | ph);
+                mv[b] = ph & xv;
+                hin = hout;
+            }
+            score += hin;
+            //cada caracter restant baixa la distancia com a molt en 1
+            if(score - (n - j - 1) > limit) return score - (n - j - 1);
         }
-        total /= answeredCount;        
-        QuestionAnswer qa = new QuestionAnswer(total);
-        return qa;
+        return score;
     }
     /**
-     * Generates the multiple choice quantitative mean of a cluster of answers for a given question index
-     * @param clusterAnswers all answers in the cluster
-     * @param qIdx question index to create the mean for
-     * @param questionChoices list of possible choices for the question
-     * @return  QuestionAnswer storing the multiple choice quantitative mean
+     * Levenshtein distance bit-parallel (Myers) for a pattern of 1 to 64 characters, a single block kept in registers
+     * @param p pattern, the shorter string
+     * @param t text, the longer string
+     * @param limit the computation stops once the distance is surely greater than limit
+     * @return int min steps to convert p into t, any value greater than limit if it exceeds limit
      */
-    static QuestionAnswer MCquantitativeMean(ArrayList<Answer> clusterAnswers,int qIdx,ArrayList<String> questionChoices){
-        int total = 0;
-        int answeredCount = 0;
-        for(Answer a : clusterAnswers){
-            if(!a.getQuestionAnswer(qIdx).isUnAnswered()){
-                String s = a.getQuestionAnswer(qIdx).getAnswerMultiple().get(0);
-                total += questionChoices.indexOf(s);
-                answeredCount++;
+    private static int levenshteinMyers64(String p, String t, int limit){
+        int m = p.length();
+        int n = t.length();
+        long last = 1L << (m - 1);
+        //caracters ASCII per taula, la resta per cerca lineal dins el patro
+        long[] ascii = new long[128];
+        boolean wide = false;
+        for(int i = 0; i < m; i++){
+            char ch = p.charAt(i);
+            if(ch < 128) ascii[ch] |= 1L << i;
+            else wide = true;
+        }
+        long pv = -1L;
+        long mv = 0L;
+        int score = m;
+        for(int j = 0; j < n; j++){
+            char ch = t.charAt(j);
+            long eq;
+            if(ch < 128) eq = ascii[ch];
+            else{
+                eq = 0L;
+                if(wide) for(int i = 0; i < m; i++) if(p.charAt(i) == ch) eq |= 1L << i;
             }
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if((ph & last) != 0) score++;
+            else if((mh & last) != 0) score--;
+            ph = (ph << 1) | 1L; //la primera fila de la matriu creix d'un en un
+            mh <<= 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+            if(score - (n - j - 1) > limit) return score - (n - j - 1);
         }
-        ArrayList<String> answers = null;
-        if(answeredCount > 0){
-            int index = (int) Math.round((double)total/answeredCount);
-            String s = questionChoices.get(index);
-            answers = new ArrayList<String>(){{add(s);}};
+        return score;
+    }
+    /**
+     * Levenshtein distance restricted to a band around the diagonal (Ukkonen), with early exit.
+     * Only the cells that can still lead to a distance of at most limit are computed: a cell (i,j) costs at least
+     * |i-j| to reach and |(n-j)-(m-i)| to leave, so the band is limit+1 cells wide. Stops as soon as every cell of a row exceeds limit
+     * cost O(m*limit), m the shorter length
+     * memory cost O(n)
+     * @param str1 string 1
+     * @param str2 string 2
+     * @param limit largest distance of interest
+     * @return int min steps to convert str1 into str2 (the same as levenshteinDynamic) if it is at most limit, limit+1 otherwise
+     */
+    static int levenshteinBanded(String str1, String str2, int limit){
+        String a = str1.length() <= str2.length() ? str1 : str2;
+        String b = a == str1 ? str2 : str1;
+        int m = a.length();
+        int n = b.length();
+        if(n - m > limit) return limit + 1;
+        if(m == 0) return n;
+        int over = limit + 1;
+        int x = (limit - (n - m)) / 2; //les diagonals j-i valides son [-x, n-m+x]
+        int[] prevRow = new int[n + 1];
+        int[] currRow = new int[n + 1];
+        int[] swap;
+        int hi0 = Math.min(n, n - m + x);
+        for(int j = 0; j <= hi0; j++) prevRow[j] = j;
+        if(hi0 < n) prevRow[hi0 + 1] = over;
+        for(int i = 1; i <= m; i++){
+            int lo = Math.max(1, i - x);
+            int hi = Math.min(n, i + n - m + x);
+            currRow[lo - 1] = lo == 1 ? i : over; //fora de la banda val com a infinit
+            int rowMin = currRow[lo - 1];
+            for(int j = lo; j <= hi; j++){
+                int d;
+                if(a.charAt(i - 1) == b.charAt(j - 1)) d = prevRow[j - 1];
+                else d = 1 + Math.min(currRow[j - 1], Math.min(prevRow[j], prevRow[j - 1]));
+                if(d > over) d = over;
+                currRow[j] = d;
+                if(d < rowMin) rowMin = d;
+            }
+            if(hi < n) currRow[hi + 1] = over;
+            if(rowMin > limit) return over;
+            swap = prevRow;
+            prevRow = currRow;
+            currRow = swap;
         }
-        QuestionAnswer qa = new QuestionAnswer(Question.QuestionType.MULTIPLE_CHOICE, answers );
-        return qa;
+        return prevRow[n] > limit ? over : prevRow[n];
     }
     /**
-     * Generates the multiple choice qualitative mean  of a cluster of answers for a given question index
-     * @param clusterAnswers all answers in the cluster
+     * Levenshtein distance when only distances up to a limit matter, the band is used when it is
+     * narrower than the bit-parallel algorithm is wide, Myers otherwise
+     * @param str1 string 1
+     * @param str2 string 2
+     * @param limit largest distance of interest
+     * @return int min steps to convert str1 into str2 (the same as levenshteinDynamic) if it is at most limit,
+     * a value greater than limit otherwise
+     */
+    static int levenshteinBounded(String str1, String str2, int limit){
+        int m = Math.min(str1.length(), str2.length());
+        int n = Math.max(str1.length(), str2.length());
+        if(n - m > limit) return limit + 1;
+        //un bloc de Myers per caracter costa com unes quantes cel·les de la banda
+        if(limit < Integer.MAX_VALUE && (long) m * (limit + 1) < 4L * n * ((m + 63) / 64)) return levenshteinBanded(str1, str2, limit);
+        return levenshteinMyers(str1, str2, limit);
+    }
+    //------------------------------------------------------------------------------------
+    // means
+
+    /**
+     * Generates the numeric mean of a cluster from its accumulated statistics
+     * @param total sum of the normalized answers
+     * @param answeredCount number of answers summed
+     * @return double normalized mean, KmeansData.MISSING_NUMERIC if nobody answered
+     */
+    static double numericMean(double total, int answeredCount){
+        if(answeredCount == 0) return KmeansData.MISSING_NUMERIC;
+        return total / answeredCount;
+    }
+    /**
+     * Generates the multiple choice quantitative mean of a cluster from its accumulated statistics,
+     * the mean is taken over the original order of the choices
+     * @param data encoded answers, gives the choice ranks
      * @param qIdx question index to create the mean for
-     * @param questionChoices list of possible choices for the question
-     * @return QuestionAnswer storing the multiple choice qualitative mean (multiple choice)
+     * @param total sum of the original indexes of the chosen choices
+     * @param answeredCount number of answers summed
+     * @return int rank of the mean choice among the sorted choices, KmeansData.MISSING if nobody answered
+     */
+    static int MCquantitativeMean(KmeansData data, int qIdx, long total, int answeredCount){
+        if(answeredCount == 0) return KmeansData.MISSING;
+        int index = (int) Math.round((double)total/answeredCount);
+        return data.rankOfChoice[qIdx][index];
+    }
+    /**
+     * Generates the multiple choice qualitative mean of a cluster from its choice frequencies,
+     * the centroid keeps every choice with the maximum frequency
+     * @param freq times each choice (original index) was selected
+     * @param answeredCount number of answers counted, including the ones that selected nothing
+     * @return long[] bitset of the choice indexes, empty if nobody selected a choice, null if nobody answered
      */
-    static QuestionAnswer MCQualitativeMMean(ArrayList<Answer> clusterAnswers,int qIdx,ArrayList<String> questionChoices){ //segurar que mante ordre
-        int[] freq = new int[questionChoices.size()];
+    static long[] MCQualitativeMMean(int[] freq, int answeredCount){
+        if(answeredCount == 0) return null;
+        long[] centroid = new long[KmeansData.bitsetWords(freq.length)];
         int maxFreq = 0;
-        ArrayList<String> centroidChoices = new ArrayList<>();
-        for (Answer a : clusterAnswers) {
-            if(!a.getQuestionAnswer(qIdx).isUnAnswered()){
-                for (String s : a.getQuestionAnswer(qIdx).getAnswerMultiple()) {
-                    int idx = questionChoices.indexOf(s);
-                    freq[idx]++;
-                    if (freq[idx] > maxFreq) {
-                        maxFreq = freq[idx];
-                        centroidChoices.clear();
-                        centroidChoices.add(questionChoices.get(idx));
-                    } else if (freq[idx] == maxFreq) {
-                        if (!centroidChoices.contains(questionChoices.get(idx))) {
-                            centroidChoices.add(questionChoices.get(idx));
-                        }
-                    }
-                }
-            }  
-        }
-        if(centroidChoices.isEmpty()) centroidChoices = null;
-        else centroidChoices.sort(null);
-        QuestionAnswer qa = new QuestionAnswer(Question.QuestionType.MULTIPLE_CHOICE, centroidChoices);
-        return qa;
+        for(int f : freq) if(f > maxFreq) maxFreq = f;
+        if(maxFreq == 0) return centroid;
+        for(int idx = 0; idx < freq.length; idx++) if(freq[idx] == maxFreq) centroid[idx >>> 6] |= 1L << (idx & 63);
+        return centroid;
     }
     /**
-     * Generates the open ended mean of a cluster of answers for a given question index
-     * @param clusterAnswers all answers in the cluster
-     * @param qIdx question index to create the mean for
-     * @return QuestionAnswer storing the open ended mean
+     * Adds a choice bitset to the choice frequencies of a cluster, only the set bits are visited
+     * @param freq times each choice (original index) was selected
+     * @param set choice bitset of an answer
+     * @param delta 1 to add the answer, -1 to remove it
      */
-    static QuestionAnswer openEndedMean(ArrayList<Answer> clusterAnswers,int qIdx){
-        HashMap<String,Integer> freqWords = new HashMap<>();
-        for(Answer a : clusterAnswers){
-            if(a.getQuestionAnswer(qIdx).isUnAnswered()) continue;
-
-            String ans = a.getQuestionAnswer(qIdx).getAnswerString();
-            String[] words = ans.split(" ");
-            for(String s : words){
-                freqWords.put(s, freqWords.getOrDefault(s,0)+1);
+    static void countChoices(int[] freq, long[] set, int delta){
+        for(int w = 0; w < set.length; w++){
+            long bits = set[w];
+            while(bits != 0){
+                freq[(w << 6) + Long.numberOfTrailingZeros(bits)] += delta;
+                bits &= bits - 1;
             }
         }
+    }
+    /**
+     * Generates the open ended mean of a cluster from its word frequencies, the most frequent word
+     * @param freqWords times each word (dictionary id) appears
+     * @return int dictionary id of the most frequent word (lowest id on ties), KmeansData.MISSING if there are no words
+     */
+    static int openEndedMean(HashMap<Integer,Integer> freqWords){
         int max = -1;
-        String out = null;
-        for(String s : freqWords.keySet()){
-            int count = freqWords.get(s);
-            if( count > max){
+        int out = KmeansData.MISSING;
+        for(HashMap.Entry<Integer,Integer> e : freqWords.entrySet()){
+            int count = e.getValue();
+            if(count > max || (count == max && e.getKey() < out)){
                 max = count;
-                out = s;
+                out = e.getKey();
             }
         }
-        QuestionAnswer qa = new QuestionAnswer(Question.QuestionType.OPEN_ENDED, out);
-        return qa;
+        return out;
     }
     //----------------------------------------------------------------------------------
     //miscelaneous
@@ -250,20 +425,7 @@ public class KmeansHelper{
         double maxDistance = -1.0;
 
         for (int i = 1; i < nK; i++) {
-            double x0 = i;
-            double y0 = computedWCSS[i-1];
-            // Perpendicular distance from point (x0,y0) to the line (x1,y1)-(x2,y2)
-            double numerator = Math.abs(
-                    (y2 - y1) * x0
-                    - (x2 - x1) * y0
-                    + x2 * y1
-                    - y2 * x1
-            );
-            double denominator = Math.sqrt(
-                    Math.pow(y2 - y1, 2) +
-                    Math.pow(x2 - x1, 2)
-            );
-            double distance = numerator / denominator;
+            double distance = chordDistance(x1, y1, x2, y2, i, computedWCSS[i-1]);
             if (distance > maxDistance) {
                 maxDistance = distance;
                 elbowIndex = i;
@@ -272,6 +434,71 @@ public class KmeansHelper{
         return elbowIndex;
     }  
 
+    /**
+     * Given the within cluster sum of squares of some K values, not necessarily consecutive,
+     * returns the K that creates the elbow, the same way as detectElbow
+     * @param ks K values, increasing, the first one and the last one are the ends of the curve
+     * @param computedWCSS WCSS of every K value, in the same order
+     * @return int K where the elbow is found
+     */
+    static int detectElbow(int[] ks, double[] computedWCSS){
+        int nK = ks.length;
+        if(nK <= 2) return ks[nK-1];
+        int elbow = ks[0];
+        double maxDistance = -1.0;
+        for (int i = 0; i < nK - 1; i++) {
+            double distance = chordDistance(ks[0], computedWCSS[0], ks[nK-1], computedWCSS[nK-1], ks[i], computedWCSS[i]);
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                elbow = ks[i];
+            }
+        }
+        return elbow;
+    }
+
+    /**
+     * Perpendicular distance from the point (x0,y0) to the line (x1,y1)-(x2,y2) of a WCSS curve
+     * @param x1 K of the first end
+     * @param y1 WCSS of the first end
+     * @param x2 K of the last end
+     * @param y2 WCSS of the last end
+     * @param x0 K of the point
+     * @param y0 WCSS of the point
+     * @return double distance, greater the more the curve bends at the point
+     */
+    static double chordDistance(double x1, double y1, double x2, double y2, double x0, double y0){
+        double numerator = Math.abs(
+                (y2 - y1) * x0
+                - (x2 - x1) * y0
+                + x2 * y1
+                - y2 * x1
+        );
+        double denominator = Math.sqrt(
+                Math.pow(y2 - y1, 2) +
+                Math.pow(x2 - x1, 2)
+        );
+        return numerator / denominator;
+    }
+
+    /**
+     * Checks if the elbow of a WCSS curve computed for K = 1..count is already established:
+     * the last patience K values each lowered the WCSS by less than tolerance times WCSS(K=1)
+     * @param computedWCSS double[] storing the computed WCSS, index 0 is K=1
+     * @param count number of K values computed so far
+     * @param tolerance relative gain considered flat, 0 never establishes the elbow
+     * @param patience consecutive flat K values needed
+     * @return true if the search can stop
+     */
+    static boolean elbowEstablished(double[] computedWCSS, int count, double tolerance, int patience){
+        if(tolerance <= 0 || count <= patience + 1) return false;
+        double base = computedWCSS[0];
+        if(base <= 0) return true; //every answer is equal, more clusters cannot help
+        for(int i = count - patience; i < count; i++){
+            if((computedWCSS[i-1] - computedWCSS[i]) / base >= tolerance) return false;
+        }
+        return true;
+    }
+
     /**
      * Parses the answer to filter relevant words from Open Ended questions
      * @param a The answer to clean
@@ -0,0 +1,74 @@
+package domain.classes;
+
+import java.util.ArrayList;
+
+/** Class to encapsulate the result of a kmeans execution, stores the assignment and the centroids
+*/
+final class KmeansRes{
+    /**
+     * Atribute: Stores the cluster of every row of the encoded answers
+     */
+    public int[] assignment;
+    /**
+     * Atribute: Stores the centroids, one encoded row per cluster
+     */
+    public KmeansData centroids;
+    /**
+     * Atribute: Within-Cluster Sum of Squares of the clustering
+     */
+    public double wcss;
+    /**
+     * Atribute: Iterations the execution needed
+     */
+    public int iterations;
+    /**
+     * Atribute: WCSS of every kmeans++ restart tried, in restart order, the kept one is the lowest
+     */
+    public double[] restartWCSS;
+    /**
+     * Atribute: Iterations of every kmeans++ restart tried, in restart order
+     */
+    public int[] restartIterations;
+    /**
+     * Atribute: Row of the answer every cluster is built around (k-medoids), null for kmeans clusterings
+     */
+    public int[] medoids;
+    /**
+     * Atribute: True if the execution stopped at the deadline, the clustering is then the best found in time
+     */
+    public boolean partial;
+    /**
+     * Simple Creator for KmeansRes
+     * @param assignment The index of the cluster of every row
+     * @param centroids The encoded centroids
+     */    
+    public KmeansRes( int[] assignment,KmeansData centroids ){
+        this.assignment = assignment;
+        this.centroids = centroids;
+    }
+
+    /**
+     * Builds the row lists of every cluster, rows keep their order
+     * @return ArrayList of clusters, each one an ArrayList of rows
+     */
+    public ArrayList<ArrayList<Integer>> clusters(){
+        ArrayList<ArrayList<Integer>> clusters = new ArrayList<>(centroids.nRows);
+        for (int i = 0; i < centroids.nRows; i++) {
+            clusters.add(new ArrayList<>());
+        }
+        for(int row = 0; row < assignment.length; row++){
+            clusters.get(assignment[row]).add(row);
+        }
+        return clusters;
+    }
+
+    /**
+     * Number of rows of every cluster
+     * @return int[] size of every cluster
+     */
+    public int[] sizes(){
+        int[] sizes = new int[centroids.nRows];
+        for(int k : assignment) sizes[k]++;
+        return sizes;
+    }
+}
@@ -0,0 +1,142 @@
+package domain.classes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded memo of the LEVENSHTEIN distances between OPEN_ENDED strings of one encoding, keyed by the pair of
+ * their dictionary ids. Cleaned answers and centroid words repeat a lot, so the same pairs come back in every
+ * iteration and for every K of the elbow method.
+ * The entries are split into segments with their own lock and LRU order, so the chunks of a parallel run
+ * rarely wait for each other. The cache only holds entries while it is open (one clustering run or evaluation),
+ * closing it releases them and keeps the hit counts of the session.
+ */
+final class OpenDistanceCache {
+    /**
+     * Attributes
+     * SEGMENTS: Number of segments, a power of 2
+     * segments: LRU maps of every segment, null while the cache is closed
+     * hits, misses: Lookups of the session that found and did not find their pair
+     */
+    private static final int SEGMENTS = 16;
+    private volatile Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * One segment, a LinkedHashMap in access order that drops its least recently used entry when full
+     */
+    private static final class Segment extends LinkedHashMap<Long,Double> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        /**
+         * Creates an empty segment
+         * @param capacity Maximum entries
+         */
+        Segment(int capacity){
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long,Double> eldest){
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * Opens the cache for a session, empty and with its hit counts reset
+     * @param capacity Maximum entries of the whole cache, 0 keeps it closed
+     */
+    void open(int capacity){
+        hits.reset();
+        misses.reset();
+        if(capacity <= 0){
+            segments = null;
+            return;
+        }
+        Segment[] s = new Segment[SEGMENTS];
+        int perSegment = Math.max(1, capacity / SEGMENTS);
+        for(int i = 0; i < SEGMENTS; i++) s[i] = new Segment(perSegment);
+        segments = s;
+    }
+
+    /**
+     * Closes the cache and releases its entries, the hit counts of the session are kept
+     */
+    void close(){
+        segments = null;
+    }
+
+    /**
+     * Looks up the distance between two strings
+     * @param a Dictionary id of one string
+     * @param b Dictionary id of the other string
+     * @return double stored distance, NaN if it is not stored or the cache is closed
+     */
+    double get(int a, int b){
+        Segment[] s = segments;
+        if(s == null) return Double.NaN;
+        long key = key(a, b);
+        Segment seg = s[segment(key)];
+        Double d;
+        synchronized (seg) {
+            d = seg.get(key);
+        }
+        if(d == null){
+            misses.increment();
+            return Double.NaN;
+        }
+        hits.increment();
+        return d;
+    }
+
+    /**
+     * Stores the distance between two strings, nothing is done while the cache is closed
+     * @param a Dictionary id of one string
+     * @param b Dictionary id of the other string
+     * @param d Distance
+     */
+    void put(int a, int b, double d){
+        Segment[] s = segments;
+        if(s == null) return;
+        long key = key(a, b);
+        Segment seg = s[segment(key)];
+        synchronized (seg) {
+            seg.put(key, d);
+        }
+    }
+
+    /**
+     * Share of the lookups of the last session that found their pair
+     * @return double hit rate between 0 and 1, 0 if there was no lookup
+     */
+    double hitRate(){
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /**
+     * Key of a pair of ids, the same in both orders since the distance is symmetric
+     * @param a One id
+     * @param b The other id
+     * @return long key
+     */
+    private static long key(int a, int b){
+        int lo = Math.min(a, b), hi = Math.max(a, b);
+        return ((long) lo << 32) | (hi & 0xffffffffL);
+    }
+
+    /**
+     * Segment of a key
+     * @param key Key of a pair
+     * @return int segment index
+     */
+    private static int segment(long key){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 60) & (SEGMENTS - 1);
+    }
+}
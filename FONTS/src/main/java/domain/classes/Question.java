@@ -14,6 +14,13 @@ public class Question {
         OPEN_ENDED, //donar una resposta com un string en format lliure
         NUMERIC,   //donae una quantitat numerica
     }
+    /**
+     * Enum representing how OPEN_ENDED answers are compared when clustering
+     */
+    public enum OpenDistance {
+        LEVENSHTEIN, //edit distance between the answer and the most frequent word of the cluster
+        TFIDF_COSINE, //cosine distance between TF-IDF vectors of the lemmas
+    }
     /**
      * Attribute
      * questionText: The text of the question
@@ -41,6 +48,11 @@ public class Question {
      * order: Indicates if the question is qualitative ordered or unordered
      */
     private Boolean order;
+    /**
+     * Attribute
+     * openDistance: How OPEN_ENDED answers are compared, null to use the one of the form
+     */
+    private OpenDistance openDistance;
     // Constructor
     /**
      * General constructor for the Question class, all unused parameters are null
@@ -165,6 +177,14 @@ public class Question {
         return order;
     }
 
+    /**
+     * Gets how the answers of an OPEN_ENDED question are compared
+     * @return OpenDistance of the question, null if it uses the one of the form
+     */
+    public OpenDistance getOpenDistance(){
+        return openDistance;
+    }
+
     //Setters
     /**
      * Sets the text of the question
@@ -173,4 +193,12 @@ public class Question {
     public void setQuestionText(String text){
         this.questionText = text;
     } 
+
+    /**
+     * Sets how the answers of an OPEN_ENDED question are compared
+     * @param openDistance The OpenDistance, null to use the one of the form
+     */
+    public void setOpenDistance(OpenDistance openDistance){
+        this.openDistance = openDistance;
+    }
 }
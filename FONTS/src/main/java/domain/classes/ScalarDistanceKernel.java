@@ -0,0 +1,40 @@
+package domain.classes;
+
+/**
+ * Plain Java distance kernel, used when the Vector API is not available.
+ * Questions are the outer loop so every column is read once for all the centroids.
+ */
+final class ScalarDistanceKernel implements DistanceKernel {
+    @Override
+    public void partialDistances(KmeansData data, int row, KmeansData centroids, double[] sum, double[] count){
+        int K = centroids.nRows;
+        for(int k = 0; k < K; k++){
+            sum[k] = 0.0;
+            count[k] = 0.0;
+        }
+        for(int q = 0; q < data.nQuestions; q++){
+            if(data.types[q] == Question.QuestionType.NUMERIC){
+                double x = data.numeric[q][row];
+                if(Double.isNaN(x)) continue;
+                double[] col = centroids.numeric[q];
+                for(int k = 0; k < K; k++){
+                    if(Double.isNaN(col[k])) continue;
+                    sum[k] += Math.abs(x - col[k]);
+                    count[k]++;
+                }
+            }
+            else if(data.types[q] == Question.QuestionType.MULTIPLE_CHOICE && data.ordered[q]){
+                int x = data.ordinal[q][row];
+                if(x == KmeansData.MISSING) continue;
+                double[] table = data.ordinalDistance[q];
+                int base = x * data.nChoices[q];
+                int[] col = centroids.ordinal[q];
+                for(int k = 0; k < K; k++){
+                    if(col[k] == KmeansData.MISSING) continue;
+                    sum[k] += table[base + col[k]];
+                    count[k]++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package domain.classes;
+
+/**
+ * Result of a silhouette evaluation of a clustering: the score and, for sampled evaluations,
+ * its 95% confidence interval. Exact and simplified evaluations have an interval of width 0.
+ */
+public class SilhouetteEvaluation {
+    /**
+     * Attributes
+     * mode: How the score was computed
+     * score: Silhouette score (or its estimate), in the range [-1.0,1.0]
+     * lowerBound, upperBound: 95% confidence interval of the score
+     * sampleSize: Number of answers scored
+     */
+    private final Kmeans.SilhouetteMode mode;
+    private final double score;
+    private final double lowerBound;
+    private final double upperBound;
+    private final int sampleSize;
+
+    /**
+     * Creates the result of an evaluation
+     * @param mode How the score was computed
+     * @param score Silhouette score
+     * @param halfWidth Half the width of the 95% confidence interval, 0 if not estimated
+     * @param sampleSize Number of answers scored
+     */
+    SilhouetteEvaluation(Kmeans.SilhouetteMode mode, double score, double halfWidth, int sampleSize){
+        this.mode = mode;
+        this.score = score;
+        this.lowerBound = Math.max(-1.0, score - halfWidth);
+        this.upperBound = Math.min(1.0, score + halfWidth);
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Gets how the score was computed
+     * @return SilhouetteMode of the evaluation
+     */
+    public Kmeans.SilhouetteMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the silhouette score, greater is better
+     * @return double in the range [-1.0,1.0]
+     */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * Gets the lower bound of the 95% confidence interval
+     * @return double lower bound, the score itself if not estimated
+     */
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    /**
+     * Gets the upper bound of the 95% confidence interval
+     * @return double upper bound, the score itself if not estimated
+     */
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * Gets the number of answers scored
+     * @return int sample size, every answer for exact and simplified evaluations
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+}
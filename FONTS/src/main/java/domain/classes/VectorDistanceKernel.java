@@ -0,0 +1,81 @@
+package domain.classes;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Distance kernel on the Vector API (jdk.incubator.vector): every lane holds one centroid, so a question is compared
+ * with a whole block of centroids at once. Missing answers of the centroids are lane masks, a question the answer
+ * left unanswered is skipped for every centroid. Ranks of ordered questions are compared with the same expression
+ * the ordinal table of KmeansData is built with, so no gather is needed. The centroids left over after the
+ * last full block are done one by one.
+ * Only loaded through DistanceKernel.load, the class needs the module to be enabled at compile and run time.
+ */
+final class VectorDistanceKernel implements DistanceKernel {
+    /**
+     * Attributes
+     * DS: Double lanes, the preferred shape of the machine
+     * IS: Int lanes, as many as DS, for the ranks of ordered questions
+     */
+    private static final VectorSpecies<Double> DS = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> IS = VectorSpecies.of(int.class, VectorShape.forBitSize(DS.length() * Integer.SIZE));
+
+    /**
+     * Creates the kernel, only if the machine has more than one double lane
+     */
+    VectorDistanceKernel(){
+        if(DS.length() < 2) throw new UnsupportedOperationException("No SIMD lanes for doubles");
+    }
+
+    @Override
+    public void partialDistances(KmeansData data, int row, KmeansData centroids, double[] sum, double[] count){
+        int K = centroids.nRows;
+        int upper = DS.loopBound(K);
+        Arrays.fill(sum, 0, K, 0.0);
+        Arrays.fill(count, 0, K, 0.0);
+        for(int q = 0; q < data.nQuestions; q++){
+            if(data.types[q] == Question.QuestionType.NUMERIC){
+                double x = data.numeric[q][row];
+                if(Double.isNaN(x)) continue;
+                double[] col = centroids.numeric[q];
+                int k = 0;
+                for(; k < upper; k += DS.length()){
+                    DoubleVector cv = DoubleVector.fromArray(DS, col, k);
+                    VectorMask<Double> valid = cv.compare(VectorOperators.EQ, cv); //NaN no es igual a si mateix
+                    DoubleVector.fromArray(DS, sum, k).add(cv.sub(x).abs(), valid).intoArray(sum, k);
+                    DoubleVector.fromArray(DS, count, k).add(1.0, valid).intoArray(count, k);
+                }
+                for(; k < K; k++){
+                    if(Double.isNaN(col[k])) continue;
+                    sum[k] += Math.abs(x - col[k]);
+                    count[k]++;
+                }
+            }
+            else if(data.types[q] == Question.QuestionType.MULTIPLE_CHOICE && data.ordered[q]){
+                int x = data.ordinal[q][row];
+                if(x == KmeansData.MISSING) continue;
+                double[] table = data.ordinalDistance[q];
+                int n = data.nChoices[q], base = x * n;
+                int[] col = centroids.ordinal[q];
+                int k = 0;
+                for(; k < upper; k += DS.length()){
+                    DoubleVector cv = (DoubleVector) IntVector.fromArray(IS, col, k).convertShape(VectorOperators.I2D, DS, 0);
+                    VectorMask<Double> valid = cv.compare(VectorOperators.NE, KmeansData.MISSING);
+                    DoubleVector.fromArray(DS, sum, k).add(cv.sub(x).abs().div(n), valid).intoArray(sum, k);
+                    DoubleVector.fromArray(DS, count, k).add(1.0, valid).intoArray(count, k);
+                }
+                for(; k < K; k++){
+                    if(col[k] == KmeansData.MISSING) continue;
+                    sum[k] += table[base + col[k]];
+                    count[k]++;
+                }
+            }
+        }
+    }
+}
@@ -133,6 +133,15 @@ public class DataManager {
         return persistenceManager.loadAnswersByForm(UFID);
     }
 
+    /** 
+     * Streams the Answers associated with a specific Form UFID, read one at a time every time it is iterated
+     * @param UFID ufid of the Form
+     * @return Iterable over the Answers of the Form
+     */
+    public Iterable<Answer> streamFormAnswers(int UFID){
+        return persistenceManager.streamAnswersByForm(UFID);
+    }
+
     /** 
      * Gets the answers of a specific user for a specific form
      * @param formId UFID of the Form
@@ -274,6 +283,10 @@ public class DataManager {
             Form f = getForm(answer.getFormUFID());
             if (f != null) {
                 //f.addResponder(answer.getResponderUUID());
+                // Asignar la respuesta al grupo del centroide más cercano, reagrupar si el agrupamiento está desactualizado
+                if (f.assignToClustering(answer) && f.clusteringOutdated()) {
+                    f.recluster(getAllFormAnswers(f.getUFID()));
+                }
                 persistenceManager.saveForm(f);
             }
             
@@ -284,6 +297,44 @@ public class DataManager {
         }
     }
 
+    /**
+     * Replaces the answer of a responder to a form with a modified one
+     * 
+     * The responder is moved from its affinity group to the group of the closest centroid,
+     * k-means is only recalculated if a group is left empty or the clustering is out of date.
+     * 
+     * @param answer modified answer, of a responder who already answered the form
+     * @return Boolean indicating success
+     */
+    public Boolean modifyAnswer(Answer answer){
+        if(!existsUser(answer.getResponderUUID())) return false;
+        if(!existsForm(answer.getFormUFID())) return false;
+
+        try {
+            // Respuesta anterior, tal como se agrupó
+            Answer old = persistenceManager.loadAnswer(answer.getFormUFID(), answer.getResponderUUID());
+            if (old == null) return addNewAnswer(answer);
+
+            // Sobrescribir la respuesta en disco
+            persistenceManager.deleteAnswer(answer.getFormUFID(), answer.getResponderUUID());
+            persistenceManager.saveAnswer(answer);
+
+            // Mover la respuesta entre grupos
+            Form f = getForm(answer.getFormUFID());
+            if (f != null) {
+                if (!f.moveInClustering(old, answer) || f.clusteringOutdated()) {
+                    f.recluster(getAllFormAnswers(f.getUFID()));
+                }
+                persistenceManager.saveForm(f);
+            }
+
+            return true;
+        } catch (Exception e) {
+            System.err.println("Error modifying answer: " + e.getMessage());
+            return false;
+        }
+    }
+
     // ---------------------------------------------------------
     // UPDATES
     // ---------------------------------------------------------
@@ -361,6 +412,9 @@ public class DataManager {
         }
     
         try {
+            // Guardar la respuesta tal como se agrupó antes de eliminarla
+            Answer old = persistenceManager.loadAnswer(formUFID, responderUUID);
+
             // Eliminar la respuesta de disco
             boolean deleted = persistenceManager.deleteAnswer(formUFID, responderUUID);
             
@@ -375,11 +429,10 @@ public class DataManager {
                 // Actualizar el formulario
                 Form f = getForm(formUFID);
                 if (f != null) {
-                  
-                    // Recalcular kmeans
-                    FormController formController = new FormController();
-                    formController.executeKmeans(formUFID,null);
-
+                    // Quitar la respuesta de su grupo, recalcular kmeans solo si un grupo queda vacío o el agrupamiento está desactualizado
+                    if (old == null || !f.removeFromClustering(old) || f.clusteringOutdated()) {
+                        f.recluster(getAllFormAnswers(formUFID));
+                    }
                     persistenceManager.saveForm(f);
                 }
             }
@@ -465,9 +518,9 @@ public class DataManager {
             // Obtener todos los formularios creados por el usuario
             HashMap<Integer, Form> forms = getForms();
 
-            // Listas para seguimiento de formularios a eliminar y a recalcular
+            // Listas para seguimiento de formularios a eliminar y respuestas eliminadas por formulario
             List<Integer> UFIDToDelete = new ArrayList<>();
-            List<Integer> UFIDToRecalculate = new ArrayList<>();
+            HashMap<Integer, Answer> deletedAnswers = new HashMap<>();
             
             for (Form f : forms.values()) {
                 if (f.getCreatorUUID() == UUID) {
@@ -486,20 +539,19 @@ public class DataManager {
                 for (Answer a : answers) {
                     if (a.getResponderUUID() == UUID) {
                         persistenceManager.deleteAnswer(f.getUFID(), UUID);
-                        // El formulario fue afectado, necesita recalcular kmeans
-                        if (!UFIDToRecalculate.contains(f.getUFID())) {
-                            UFIDToRecalculate.add(f.getUFID());
-                        }
+                        // El formulario fue afectado, hay que quitar la respuesta de su grupo
+                        deletedAnswers.put(f.getUFID(), a);
                     }
                 }
             }
             
-            // Recalcular kmeans para formularios afectados
-            for (Integer ufid : UFIDToRecalculate) {
-                Form f = getForm(ufid);
+            // Actualizar los grupos de los formularios afectados, recalcular kmeans solo si hace falta
+            for (Map.Entry<Integer, Answer> e : deletedAnswers.entrySet()) {
+                Form f = getForm(e.getKey());
                 if (f != null) {
-                    FormController formController = new FormController();
-                    formController.executeKmeans(ufid,null);
+                    if (!f.removeFromClustering(e.getValue()) || f.clusteringOutdated()) {
+                        f.recluster(getAllFormAnswers(e.getKey()));
+                    }
                     persistenceManager.saveForm(f);
                 }
             }
@@ -507,6 +507,51 @@ public class DomainController {
         
     }
 
+    /**
+     * Call to formController, executes the K-means clustering on the answers of a specific form
+     * with a cancellation token, a time limit and a progress listener.
+     * 
+     * @param formID The ID of the form.
+     * @param k The number of clusters, null to choose it with the elbow method.
+     * @param token The cancellation token, null for none.
+     * @param timeLimitMillis The milliseconds the execution may take, 0 for no limit. The best clustering found by then is kept.
+     * @param listener The listener of the current K, iteration and assignment changes, null for none.
+     * @return A list of clusters, each cluster being a list of answer strings.
+     * @throws Exception If there is an error during the execution of K-means or it was cancelled.
+     */ 
+    public ArrayList<ArrayList<String>> executeKmeans(int formID, Integer k, CancellationToken token, long timeLimitMillis, ClusteringProgress listener) throws Exception {
+        return formController.executeKmeans(formID, k, token, timeLimitMillis, listener);
+    }
+
+    /**
+     * Call to formController, executes the streaming K-means clustering on the answers of a specific form,
+     * reading them one at a time so large forms fit in memory.
+     * 
+     * @param formID The ID of the form.
+     * @param k The number of clusters.
+     * @return A list of clusters, each cluster being a list of answer strings.
+     * @throws Exception If there is an error during the execution of K-means.
+     */ 
+    public ArrayList<ArrayList<String>> executeKmeansStreaming(int formID, int k) throws Exception {
+        return formController.executeKmeansStreaming(formID, k);
+    }
+
+    /**
+     * Call to formController, executes the streaming K-means clustering on the answers of a specific form
+     * with a cancellation token, a time limit and a progress listener.
+     * 
+     * @param formID The ID of the form.
+     * @param k The number of clusters.
+     * @param token The cancellation token, null for none.
+     * @param timeLimitMillis The milliseconds the execution may take, 0 for no limit. The answers read by then are clustered.
+     * @param listener The listener of the current K, iteration and assignment changes, null for none.
+     * @return A list of clusters, each cluster being a list of answer strings.
+     * @throws Exception If there is an error during the execution of K-means or it was cancelled.
+     */ 
+    public ArrayList<ArrayList<String>> executeKmeansStreaming(int formID, int k, CancellationToken token, long timeLimitMillis, ClusteringProgress listener) throws Exception {
+        return formController.executeKmeansStreaming(formID, k, token, timeLimitMillis, listener);
+    }
+
     /**
      * Call to formController, evaluates the clustering of a specific form.
      * 
@@ -518,6 +563,41 @@ public class DomainController {
         return formController.evaluateCluster(formID,k);
     }
 
+    /**
+     * Call to formController, evaluates the clustering of a specific form, exactly or approximately.
+     * 
+     * @param formID The ID of the form.
+     * @param mode EXACT, SIMPLIFIED or SAMPLED silhouette.
+     * @return A SilhouetteEvaluation with the score and, when sampled, its confidence interval.
+     * @throws Exception If there is an error during the evaluation.
+     */
+    public SilhouetteEvaluation evaluateCluster(int formID, Integer k, Kmeans.SilhouetteMode mode) throws Exception {
+        return formController.evaluateCluster(formID,k,mode);
+    }
+
+    /**
+     * Call to formController, evaluates the clustering already stored for a form without executing K-means again.
+     * 
+     * @param formID The ID of the form.
+     * @param mode EXACT, SIMPLIFIED or SAMPLED silhouette.
+     * @return A SilhouetteEvaluation with the score and, when sampled, its confidence interval.
+     * @throws FormException If the form does not exist or has not been clustered.
+     */
+    public SilhouetteEvaluation evaluateStoredCluster(int formID, Kmeans.SilhouetteMode mode) throws FormException {
+        return formController.evaluateStoredCluster(formID,mode);
+    }
+
+    /**
+     * Call to formController, gets the WCSS of the clustering already stored for a form without executing K-means again.
+     * 
+     * @param formID The ID of the form.
+     * @return The Within-Cluster Sum of Squares of the clustering.
+     * @throws FormException If the form does not exist or has not been clustered.
+     */
+    public double evaluateStoredClusterWCSS(int formID) throws FormException {
+        return formController.evaluateStoredClusterWCSS(formID);
+    }
+
     /**
      * Call to formController, modifies the answers of an answered form.
      * 
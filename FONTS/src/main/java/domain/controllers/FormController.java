@@ -25,6 +25,16 @@ public class FormController {
      * Attribute DataManager dataManager: The persistence controller used for data management
      */
     private DataManager dataManager;
+    /**
+     * Attribute LinkedHashMap<Integer,Kmeans> engines: Kmeans instance of the forms clustered or evaluated most recently, least recently
+     * used first. It keeps the bisecting hierarchy and the cleaned answers of the form between calls (forms are loaded again on every call).
+     * Accessed only while holding its lock, and every engine is only used while holding its own lock, so one run per form at a time
+     */
+    private final LinkedHashMap<Integer, Kmeans> engines = new LinkedHashMap<>();
+    /**
+     * Attribute int MAX_ENGINES: Maximum number of engines kept, the least recently used one is dropped first
+     */
+    private static final int MAX_ENGINES = 4;
     
     /**
      * FormController constructor (needed on tests with mocks)
@@ -283,7 +293,10 @@ public class FormController {
      */
     public boolean deleteForm(int UFID) throws FormException {
         if (dataManager.deleteForm(UFID)==false) throw new IdNotFoundException(UFID, "Form");
-        else return true;
+        synchronized (engines) {
+            engines.remove(UFID);
+        }
+        return true;
     }
 
 
@@ -322,6 +335,20 @@ public class FormController {
             throw new FormAlreadyAnsweredException(formID);
         }
 
+        Answer answer = buildAnswer(form, usrID, allAnswers);
+        dataManager.addNewAnswer(answer);
+    }
+
+    /**
+     * Validates the raw answers of a user to a form and builds the Answer
+     * @param form The form being answered
+     * @param usrID The unique identifier of the user answering the form
+     * @param allAnswers An ArrayList of Strings containing all the answers to the form's questions
+     * @return Answer built from the raw answers
+     * @throws FormException if the answers are not valid (InvalidAnswerCountException, InvalidMultipleChoiceAnswerException, InvalidAnswerChoiceException, InvalidAnswerFormatException, InvalidAnswerRangeException, OpenEndedAnswerTooLongException)
+     */
+    private Answer buildAnswer(Form form, int usrID, ArrayList<String> allAnswers) throws FormException {
+        int formID = form.getUFID();
         ArrayList<Question> questions = form.getQuestions();
         
         if (questions.size() != allAnswers.size()) {
@@ -397,8 +424,7 @@ public class FormController {
                     break;
             }
         }
-        Answer answer = new Answer(usrID, formID, qa);
-        dataManager.addNewAnswer(answer);
+        return new Answer(usrID, formID, qa);
     }
     
 
@@ -817,16 +843,10 @@ public class FormController {
             throw new IdNotFoundException(formID, "You have not answered this form");
         }
         
-        // First delete existing persisted answer (if present), then add the new one
+        // Validate the new answers first, then replace the persisted answer (moving the user between affinity groups)
         try {
-            try {
-                dataManager.deleteAnswer(formID, p.getUUID());
-            } catch (FormException ex) {
-                // ignore if failing because answer not found
-                if (!(ex instanceof AnswerNotFoundException)) throw ex;
-            }
-            // Re-answer (because persisted answer was removed)
-            answerForm(formID, p.getUUID(), newAnswers);
+            Answer answer = buildAnswer(f, p.getUUID(), newAnswers);
+            dataManager.modifyAnswer(answer);
         } catch (FormException e) {
             // propagate if user/form not found or validation errors
             throw e;
@@ -840,24 +860,124 @@ public class FormController {
 
     /**
      * Executes K-means clustering on a form
+     * With a given K the bisecting K-means is used: its hierarchy is kept per form while the answers do not change,
+     * so trying several K only builds it once
      * @param formID
+     * @param k number of clusters, null to choose it with the elbow method
      * @return An ArrayList of ArrayLists of Strings, each inner list represents a cluster with the representative's username followed by the members' usernames
      * @throws FormException
      */
     public ArrayList<ArrayList<String>>executeKmeans(int formID, Integer k) throws Exception {
+        return executeKmeans(formID, k, null, 0, null);
+    }
+
+    /**
+     * Gets the kept Kmeans instance of a form, creating it if there is none, and marks it as the most recently used
+     * @param formID
+     * @param form The form, used to create the instance
+     * @return Kmeans instance of the form, to be used while holding its lock
+     */
+    private Kmeans engine(int formID, Form form) {
+        synchronized (engines) {
+            Kmeans engine = engines.remove(formID);
+            if (engine == null) engine = new Kmeans(form);
+            engines.put(formID, engine);
+            if (engines.size() > MAX_ENGINES) engines.remove(engines.keySet().iterator().next());
+            return engine;
+        }
+    }
+
+    /**
+     * Executes K-means clustering on a form, with a way to stop it and to follow its progress
+     * On the time limit the best clustering found so far is kept, on cancellation the form is left as it was
+     * @param formID
+     * @param k number of clusters, null to choose it with the elbow method
+     * @param token cancellation token, null for none
+     * @param timeLimitMillis wall-clock milliseconds the execution may take, 0 for no limit
+     * @param listener listener of the current K, iteration and assignment changes, null for none
+     * @return An ArrayList of ArrayLists of Strings, each inner list represents a cluster with the representative's username followed by the members' usernames
+     * @throws java.util.concurrent.CancellationException if the token was cancelled
+     * @throws FormException
+     */
+    public ArrayList<ArrayList<String>>executeKmeans(int formID, Integer k, CancellationToken token, long timeLimitMillis, ClusteringProgress listener) throws Exception {
+        if (timeLimitMillis < 0) throw new IllegalArgumentException("Time limit cannot be negative: " + timeLimitMillis);
+        long deadline = timeLimitMillis == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeLimitMillis;
         Form form = dataManager.getForm(formID);
         ArrayList<Answer> answers = dataManager.getAllFormAnswers(formID);
 
         if (form == null) throw new IdNotFoundException(formID, "Form");
-        try{
-            if(k != null){
-                form.executeKmeansSetK(answers, (int)k);
-            } else {
-                form.executeKmeansElbowMethod(answers);
+        Kmeans engine = engine(formID, form);
+        synchronized (engine) {
+            form.setKmeans(engine);
+            form.setClusteringControl(token, deadline, listener);
+            try{
+                if(k != null){
+                    form.executeKmeansBisecting(answers, (int)k);
+                } else {
+                    form.executeKmeansElbowMethod(answers);
+                }
+            } finally {
+                form.setClusteringControl(null, Long.MAX_VALUE, null); //the kept engine does not carry them to the next call
+            }
+        }
+        ArrayList<ArrayList<String>> result = affinityGroupsInfo(form);
+
+        // Update form in DataManager
+        dataManager.updateForm(form);
+
+        return result;
+    }
+
+    /**
+     * Executes the streaming K-means clustering (BIRCH) on a form, answers are read from persistence one at a time
+     * so the clustering also works on forms whose answers do not fit in memory
+     * @param formID
+     * @param k number of clusters
+     * @return An ArrayList of ArrayLists of Strings, each inner list represents a cluster with the representative's username followed by the members' usernames
+     * @throws Exception if the form does not exist or the clustering fails
+     */
+    public ArrayList<ArrayList<String>> executeKmeansStreaming(int formID, int k) throws Exception {
+        return executeKmeansStreaming(formID, k, null, 0, null);
+    }
+
+    /**
+     * Executes the streaming K-means clustering (BIRCH) on a form, with a way to stop it and to follow its progress
+     * On the time limit no more answers are summarized but every answer is still labelled, on cancellation the form is left as it was
+     * @param formID
+     * @param k number of clusters
+     * @param token cancellation token, null for none
+     * @param timeLimitMillis wall-clock milliseconds the execution may take, 0 for no limit
+     * @param listener listener of the current K, iteration and assignment changes, null for none
+     * @return An ArrayList of ArrayLists of Strings, each inner list represents a cluster with the representative's username followed by the members' usernames
+     * @throws java.util.concurrent.CancellationException if the token was cancelled
+     * @throws Exception if the form does not exist or the clustering fails
+     */
+    public ArrayList<ArrayList<String>> executeKmeansStreaming(int formID, int k, CancellationToken token, long timeLimitMillis, ClusteringProgress listener) throws Exception {
+        if (timeLimitMillis < 0) throw new IllegalArgumentException("Time limit cannot be negative: " + timeLimitMillis);
+        long deadline = timeLimitMillis == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeLimitMillis;
+        Form form = dataManager.getForm(formID);
+        if (form == null) throw new IdNotFoundException(formID, "Form");
+        Kmeans engine = engine(formID, form);
+        synchronized (engine) {
+            form.setKmeans(engine);
+            form.setClusteringControl(token, deadline, listener);
+            try{
+                form.executeKmeansStreaming(dataManager.streamFormAnswers(formID), k);
+            } finally {
+                form.setClusteringControl(null, Long.MAX_VALUE, null); //the kept engine does not carry them to the next call
             }
-        } catch (Exception e){
-            throw e;
         }
+        ArrayList<ArrayList<String>> result = affinityGroupsInfo(form);
+        dataManager.updateForm(form);
+        return result;
+    }
+
+    /**
+     * Lists the usernames of the affinity groups of a form
+     * @param form
+     * @return An ArrayList of ArrayLists of Strings, each inner list represents a cluster with the representative's username followed by the members' usernames
+     */
+    private ArrayList<ArrayList<String>> affinityGroupsInfo(Form form) {
         ArrayList<AffinityGroup> clusters = form.getAffinityGroups();
         ArrayList<ArrayList<String>> result = new ArrayList<>();
         for(AffinityGroup ag : clusters){
@@ -880,11 +1000,6 @@ public class FormController {
             }
             
         }
-
-
-        // Update form in DataManager
-        dataManager.updateForm(form);
-
         return result;
     }
 
@@ -895,49 +1010,72 @@ public class FormController {
      * @throws FormException if there was an error evaluating the clustering (IdNotFoundException, FormException)
      */
     public double evaluateCluster(int formID, Integer k) throws Exception {   
+        return evaluateCluster(formID, k, Kmeans.SilhouetteMode.EXACT).getScore();
+    }
+
+    /**
+     * Evaluates the clustering already stored for a form (its affinity groups), without executing K-means again
+     * @param formID
+     * @param mode EXACT, SIMPLIFIED (distances to the centroids) or SAMPLED (stratified sample with confidence interval)
+     * @return SilhouetteEvaluation with the score of the clustering
+     * @throws FormException if there was an error evaluating the clustering (IdNotFoundException, FormNotExecutedClustering)
+     */
+    public SilhouetteEvaluation evaluateStoredCluster(int formID, Kmeans.SilhouetteMode mode) throws FormException {
+        Form form = dataManager.getForm(formID);
+        if (form == null) throw new IdNotFoundException(formID, "Form");
+        Kmeans engine = engine(formID, form);
+        synchronized (engine) {
+            form.setKmeans(engine);
+            return form.evaluateStoredCluster(dataManager.getAllFormAnswers(formID), mode);
+        }
+    }
+
+    /**
+     * Gets the Within-Cluster Sum of Squares of the clustering already stored for a form, without executing K-means again
+     * @param formID
+     * @return double WCSS of the clustering, lower is better
+     * @throws FormException if there was an error evaluating the clustering (IdNotFoundException, FormNotExecutedClustering)
+     */
+    public double evaluateStoredClusterWCSS(int formID) throws FormException {
+        Form form = dataManager.getForm(formID);
+        if (form == null) throw new IdNotFoundException(formID, "Form");
+        Kmeans engine = engine(formID, form);
+        synchronized (engine) {
+            form.setKmeans(engine);
+            return form.evaluateStoredClusterWCSS(dataManager.getAllFormAnswers(formID));
+        }
+    }
+
+    /**
+     * Evaluates the clustering of a form, with the exact silhouette or an approximation for large forms
+     * @param formID
+     * @param k number of clusters (bisecting kmeans, the same clustering executeKmeans shows), null to choose it with the elbow method
+     * @param mode EXACT, SIMPLIFIED (distances to the centroids) or SAMPLED (stratified sample with confidence interval)
+     * @return SilhouetteEvaluation with the score of the clustering
+     * @throws FormException if there was an error evaluating the clustering (IdNotFoundException, FormException)
+     */
+    public SilhouetteEvaluation evaluateCluster(int formID, Integer k, Kmeans.SilhouetteMode mode) throws Exception {   
         
         Form form = dataManager.getForm(formID);
         ArrayList<Answer> answers = dataManager.getAllFormAnswers(formID);
 
         if (form == null) throw new IdNotFoundException(formID, "Form");
-        try{
-            if(k != null){
-                form.executeKmeansSetK(answers, (int)k);
-            } else {
-                form.executeKmeansElbowMethod(answers);
-            }
-        } catch (Exception e){
-            throw e;
-        }
-        ArrayList<AffinityGroup> clusters = form.getAffinityGroups();
-        ArrayList<ArrayList<String>> result = new ArrayList<>();
-        for(AffinityGroup ag : clusters){
-            if(ag != null){
-                ArrayList<String> clusterInfo = new ArrayList<>();
-                Integer repID = ag.getRepresentativeID();
-                Profile rep = dataManager.getProfile(repID);
-                if(rep != null) clusterInfo.add(rep.getUsername());
-                else clusterInfo.add("Representative not found");
-            
-            
-                ArrayList<Integer> members = ag.getMemberIDs();
-                
-                for(Integer memberID : members){
-                    Profile member = dataManager.getProfile(memberID);
-                    if(member != null) clusterInfo.add(member.getUsername());
-                    else clusterInfo.add("User not found in data");
+        Kmeans engine = engine(formID, form);
+        synchronized (engine) {
+            form.setKmeans(engine);
+            form.setKeepDistances(true); //the evaluation reuses the distances of the clustering
+            try{
+                if(k != null){
+                    form.executeKmeansBisecting(answers, (int)k); //the same clustering executeKmeans shows
+                } else {
+                    form.executeKmeansElbowMethod(answers);
                 }
-                result.add(clusterInfo);
+                SilhouetteEvaluation evaluate = form.evaluateCluster(mode);
+                dataManager.updateForm(form);
+                return evaluate;
+            } finally {
+                form.setKeepDistances(false);
             }
-            
-        }
-
-        try {
-            double evaluate = form.evaluateCluster();
-            dataManager.updateForm(form);
-            return evaluate;
-        } catch (FormException e) {
-            throw e;
         }
         
     }
@@ -95,6 +95,56 @@ public class AnswerPersistence {
         return answers;
     }
 
+    /** 
+     * Streams the Answers associated with a specific Form UFID, reading one file at a time.
+     * Every iteration lists the directory again, only the file names are kept in memory and the listing is closed
+     * right away, so an iteration that stops early leaves no directory handle open.
+     * 
+     * @param formUFID UFID of the Form
+     * @return Iterable over the Answers of the Form, unreadable files are skipped
+     */
+    Iterable<Answer> streamByForm(int formUFID) {
+        return () -> new Iterator<Answer>() {
+            private final Iterator<Path> files = list().iterator();
+            private Answer next = advance();
+
+            private List<Path> list() {
+                List<Path> entries = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(ANSWERS_DIR), formUFID + "_*.json")) {
+                    for (Path entry : stream) entries.add(entry);
+                } catch (IOException e) {
+                    System.err.println("Error accessing answers directory: " + e.getMessage());
+                }
+                return entries;
+            }
+
+            private Answer advance() {
+                while (files.hasNext()) {
+                    Path entry = files.next();
+                    try (FileReader reader = new FileReader(entry.toFile())) {
+                        return gson.fromJson(reader, Answer.class);
+                    } catch (IOException e) {
+                        System.err.println("Error loading answer from file " + entry + ": " + e.getMessage());
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Answer next() {
+                if (next == null) throw new NoSuchElementException();
+                Answer current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
     /** 
      * Deletes an Answer JSON file by Form UFID and responder UUID.
      * 
@@ -255,6 +255,16 @@ public class PersistenceManager {
         return answerPersistence.loadByForm(ufid);
     }
 
+    /** 
+     * Streams the Answers associated with a specific Form UFID, one at a time, without loading them all.
+     * 
+     * @param ufid UFID of the Form
+     * @return Iterable over the Answers of the Form
+     */
+    public Iterable<Answer> streamAnswersByForm(int ufid) {
+        return answerPersistence.streamByForm(ufid);
+    }
+
 
     // ---------------------------------------------------------
     // ADMIN METHODS - Additional operations for admin functionality
@@ -2,6 +2,7 @@ package presentation.classes.admin;
 
 import presentation.controllers.PresentationController;
 import presentation.classes.UIComponents;
+import domain.classes.Kmeans;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -34,6 +35,11 @@ public class EvaluateKmeansView extends JFrame {
      */
     private JTextField fieldK;
 
+    /**
+     * Attribute: Check box to re-execute K-Means before evaluating
+     */
+    private JCheckBox checkRecluster;
+
     /**
      * Attribute: Execute button
      */
@@ -118,7 +124,7 @@ public class EvaluateKmeansView extends JFrame {
         infoPanel.setMaximumSize(new Dimension(520, 200));
         infoPanel.setAlignmentX(Component.CENTER_ALIGNMENT);
 
-        JLabel infoIcon = new JLabel("⚠️ Important: Re-execution Required");
+        JLabel infoIcon = new JLabel("ℹ️ Stored clustering");
         infoIcon.setFont(new Font(Font.MONOSPACED, Font.BOLD, 14));
         infoIcon.setForeground(UIComponents.DARK_GREEN);
         infoIcon.setAlignmentX(Component.LEFT_ALIGNMENT);
@@ -126,7 +132,7 @@ public class EvaluateKmeansView extends JFrame {
         
         infoPanel.add(Box.createRigidArea(new Dimension(0, 5)));
 
-        JLabel infoText = new JLabel("<html>Before evaluating, the K-Means algorithm will be<br>re-executed on your form.</html>");
+        JLabel infoText = new JLabel("<html>The current affinity groups of your form are evaluated.<br>Tick re-execute to run the K-Means algorithm again first.</html>");
         infoText.setFont(UIComponents.TEXT_FONT);
         infoText.setForeground(Color.DARK_GRAY);
         infoText.setAlignmentX(Component.LEFT_ALIGNMENT);
@@ -142,7 +148,7 @@ public class EvaluateKmeansView extends JFrame {
         inputSection.setLayout(new BoxLayout(inputSection, BoxLayout.Y_AXIS));
         inputSection.setBackground(Color.WHITE);
         inputSection.setOpaque(false);
-        inputSection.setMaximumSize(new Dimension(520, 180));
+        inputSection.setMaximumSize(new Dimension(520, 230));
         inputSection.setAlignmentX(Component.CENTER_ALIGNMENT);
 
         JLabel lblFormID = new JLabel("Form ID:");
@@ -183,6 +189,15 @@ public class EvaluateKmeansView extends JFrame {
         fieldK.setAlignmentX(Component.LEFT_ALIGNMENT);
         inputSection.add(fieldK);
 
+        inputSection.add(Box.createRigidArea(new Dimension(0, 12)));
+
+        checkRecluster = new JCheckBox("Re-execute K-Means before evaluating");
+        checkRecluster.setFont(UIComponents.STANDARD_FONT);
+        checkRecluster.setForeground(UIComponents.DARK_GREEN);
+        checkRecluster.setOpaque(false);
+        checkRecluster.setAlignmentX(Component.LEFT_ALIGNMENT);
+        inputSection.add(checkRecluster);
+
         contentCard.add(inputSection);
         contentCard.add(Box.createRigidArea(new Dimension(0, 30)));
 
@@ -278,13 +293,17 @@ public class EvaluateKmeansView extends JFrame {
                 }
             }
             
-            JOptionPane.showMessageDialog(this,
-                "Re-executing K-Means algorithm...\nThis may take a moment.",
-                "Processing",
-                JOptionPane.INFORMATION_MESSAGE);
-            
-
-            double silhouette = controller.getController().evaluateCluster(formID, kValue);
+            double silhouette;
+            if (checkRecluster.isSelected()) {
+                JOptionPane.showMessageDialog(this,
+                    "Re-executing K-Means algorithm...\nThis may take a moment.",
+                    "Processing",
+                    JOptionPane.INFORMATION_MESSAGE);
+
+                silhouette = controller.getController().evaluateCluster(formID, kValue);
+            } else {
+                silhouette = controller.getController().evaluateStoredCluster(formID, Kmeans.SilhouetteMode.EXACT).getScore();
+            }
 
             showEvaluateResults(silhouette, formID);
 